@@ -0,0 +1,193 @@
+package ch.epfl.javions.bench;
+
+import ch.epfl.javions.gui.AircraftIcon;
+import ch.epfl.javions.gui.ColorRamp;
+import ch.epfl.javions.gui.SpriteAtlas;
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.SVGPath;
+import javafx.stage.Stage;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the time needed to draw a frame of moving aircraft icons, either as one SVGPath node per aircraft (whose
+ * rotation and fill change every frame) or as sprites copied from a sprite atlas on a single canvas.
+ * <p>
+ * Usage : SpriteAtlasBenchmark [nodes|atlas] [number of icons], the default being atlas with 2000 icons. The program
+ * prints the mean, median and 99th percentile of the intervals between frames and of the time spent updating the
+ * scene in each frame, and then exits.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class SpriteAtlasBenchmark extends Application {
+    private static final String NODES_MODE = "nodes";
+    private static final String ATLAS_MODE = "atlas";
+    private static final int DEFAULT_ICON_COUNT = 2_000;
+    private static final int WIDTH = 1_200;
+    private static final int HEIGHT = 800;
+    private static final int WARMUP_FRAMES = 120;
+    private static final int MEASURED_FRAMES = 600;
+    private static final double MAX_SPEED = 2;
+    private static final double MAX_ALTITUDE = 12_000;
+    private static final long SEED = 2023;
+    private static final double NS_PER_MS = 1e6;
+    private final long[] frameIntervals = new long[MEASURED_FRAMES];
+    private final long[] updateTimes = new long[MEASURED_FRAMES];
+    private double[] xs, ys, dxs, dys, altitudes, directions;
+    private AircraftIcon[] icons;
+
+    /**
+     * Launches the benchmark
+     *
+     * @param args (String[]) : mode and number of icons
+     */
+    public static void main(String[] args) {
+        launch(args);
+    }
+
+    @Override
+    public void start(Stage primaryStage) {
+        List<String> args = getParameters().getUnnamed();
+        String mode = args.size() > 0 ? args.get(0) : ATLAS_MODE;
+        int count = args.size() > 1 ? Integer.parseInt(args.get(1)) : DEFAULT_ICON_COUNT;
+        createIcons(count);
+
+        Pane pane = new Pane();
+        pane.setPrefSize(WIDTH, HEIGHT);
+        Runnable update = switch (mode) {
+            case NODES_MODE -> nodesUpdate(pane);
+            case ATLAS_MODE -> atlasUpdate(pane);
+            default -> throw new IllegalArgumentException(mode);
+        };
+
+        primaryStage.setScene(new Scene(pane));
+        primaryStage.setTitle(String.format("%s, %d icons", mode, count));
+        primaryStage.show();
+
+        new AnimationTimer() {
+            private int frame = -WARMUP_FRAMES;
+            private long lastNow;
+
+            @Override
+            public void handle(long now) {
+                long start = System.nanoTime();
+                move();
+                update.run();
+                long updateTime = System.nanoTime() - start;
+
+                if (frame >= 0) {
+                    frameIntervals[frame] = now - lastNow;
+                    updateTimes[frame] = updateTime;
+                }
+                lastNow = now;
+                if (++frame == MEASURED_FRAMES) {
+                    stop();
+                    System.out.printf("%s, %d icons, %d frames%n", mode, count, MEASURED_FRAMES);
+                    print("frame interval", frameIntervals);
+                    print("update time", updateTimes);
+                    Platform.exit();
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Creates the icons, at random positions and with random speeds, altitudes and directions
+     */
+    private void createIcons(int count) {
+        Random random = new Random(SEED);
+        AircraftIcon[] allIcons = AircraftIcon.values();
+        xs = new double[count];
+        ys = new double[count];
+        dxs = new double[count];
+        dys = new double[count];
+        altitudes = new double[count];
+        directions = new double[count];
+        icons = new AircraftIcon[count];
+        for (int i = 0; i < count; ++i) {
+            xs[i] = random.nextDouble() * WIDTH;
+            ys[i] = random.nextDouble() * HEIGHT;
+            dxs[i] = (random.nextDouble() * 2 - 1) * MAX_SPEED;
+            dys[i] = (random.nextDouble() * 2 - 1) * MAX_SPEED;
+            altitudes[i] = random.nextDouble() * MAX_ALTITUDE;
+            icons[i] = allIcons[random.nextInt(allIcons.length)];
+        }
+    }
+
+    /**
+     * Moves every icon, which bounces on the sides of the window, and slowly changes its altitude
+     */
+    private void move() {
+        for (int i = 0; i < xs.length; ++i) {
+            if (xs[i] + dxs[i] < 0 || xs[i] + dxs[i] > WIDTH) dxs[i] = -dxs[i];
+            if (ys[i] + dys[i] < 0 || ys[i] + dys[i] > HEIGHT) dys[i] = -dys[i];
+            xs[i] += dxs[i];
+            ys[i] += dys[i];
+            altitudes[i] = (altitudes[i] + 5) % MAX_ALTITUDE;
+            // the direction of the icons on the screen, measured clockwise from the north
+            directions[i] = Math.atan2(dxs[i], -dys[i]);
+        }
+    }
+
+    /**
+     * Creates one SVGPath node per icon, and returns the update moving them
+     */
+    private Runnable nodesUpdate(Pane pane) {
+        SVGPath[] paths = new SVGPath[xs.length];
+        for (int i = 0; i < paths.length; ++i) {
+            paths[i] = new SVGPath();
+            paths[i].setContent(icons[i].svgPath());
+            paths[i].getStyleClass().add("aircraft");
+        }
+        pane.getStylesheets().add("aircraft.css");
+        pane.getChildren().add(new Group(paths));
+
+        return () -> {
+            for (int i = 0; i < paths.length; ++i) {
+                paths[i].setLayoutX(xs[i]);
+                paths[i].setLayoutY(ys[i]);
+                paths[i].setRotate(icons[i].canRotate() ? Math.toDegrees(directions[i]) : 0);
+                paths[i].setFill(ColorRamp.PLASMA.atAltitude(altitudes[i]));
+            }
+        };
+    }
+
+    /**
+     * Creates a canvas, and returns the update drawing the icons on it from a sprite atlas
+     */
+    private Runnable atlasUpdate(Pane pane) {
+        SpriteAtlas atlas = new SpriteAtlas();
+        Canvas canvas = new Canvas(WIDTH, HEIGHT);
+        pane.getChildren().add(canvas);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+
+        return () -> {
+            gc.clearRect(0, 0, WIDTH, HEIGHT);
+            for (int i = 0; i < xs.length; ++i) {
+                atlas.sprite(icons[i], altitudes[i], directions[i]).draw(gc, xs[i], ys[i]);
+            }
+        };
+    }
+
+    /**
+     * Prints the mean, median and 99th percentile of the given durations
+     */
+    private static void print(String name, long[] durations) {
+        long[] sorted = durations.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-15s : mean %6.2f ms, median %6.2f ms, p99 %6.2f ms%n", name, mean / NS_PER_MS,
+                sorted[sorted.length / 2] / NS_PER_MS, sorted[(int) (sorted.length * 0.99)] / NS_PER_MS);
+    }
+
+}
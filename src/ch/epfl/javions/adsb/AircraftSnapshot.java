@@ -0,0 +1,64 @@
+package ch.epfl.javions.adsb;
+
+import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.aircraft.AircraftData;
+import ch.epfl.javions.aircraft.IcaoAddress;
+
+import java.util.Objects;
+
+/**
+ * Immutable state of an aircraft at a given time, made of primitive fields (the position being stored as its two
+ * coordinates in T32) and of references to other immutable objects, so that it can be shared between threads freely.
+ *
+ * @param icaoAddress            (IcaoAddress) : ICAO address of the aircraft
+ * @param aircraftData           (AircraftData) : fixed characteristics of the aircraft, or null if unknown
+ * @param lastMessageTimeStampNs (long) : timestamp of the last message, in nanoseconds
+ * @param category               (int) : category of the aircraft
+ * @param callSign               (CallSign) : call sign of the aircraft, or null if unknown
+ * @param hasPosition            (boolean) : true if the position of the aircraft is known
+ * @param longitudeT32           (int) : longitude of the aircraft, in T32, if its position is known
+ * @param latitudeT32            (int) : latitude of the aircraft, in T32, if its position is known
+ * @param altitude               (double) : altitude of the aircraft, or negative infinity if unknown
+ * @param velocity               (double) : velocity of the aircraft, or negative infinity if unknown
+ * @param trackOrHeading         (double) : direction of the aircraft
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public record AircraftSnapshot(IcaoAddress icaoAddress, AircraftData aircraftData, long lastMessageTimeStampNs,
+                               int category, CallSign callSign, boolean hasPosition, int longitudeT32,
+                               int latitudeT32, double altitude, double velocity, double trackOrHeading) {
+
+    /**
+     * Checks that the ICAO address is not null
+     *
+     * @throws NullPointerException if the ICAO address is null
+     */
+    public AircraftSnapshot {
+        Objects.requireNonNull(icaoAddress);
+    }
+
+    /**
+     * Creates the snapshot of the current state of an aircraft
+     *
+     * @param aircraftData (AircraftData) : fixed characteristics of the aircraft, or null if unknown
+     * @param state        (MutableAircraftState) : current state of the aircraft
+     * @return the snapshot of the state
+     */
+    public static AircraftSnapshot of(AircraftData aircraftData, MutableAircraftState state) {
+        GeoPos position = state.getPosition();
+        return new AircraftSnapshot(state.getIcaoAddress(), aircraftData, state.getLastMessageTimeStampNs(),
+                state.getCategory(), state.getCallSign(), position != null,
+                position != null ? position.longitudeT32() : 0, position != null ? position.latitudeT32() : 0,
+                state.getAltitude(), state.getVelocity(), state.getTrackOrHeading());
+    }
+
+    /**
+     * Returns the position of the aircraft
+     *
+     * @return position of the aircraft, or null if it is unknown
+     */
+    public GeoPos position() {
+        return hasPosition ? new GeoPos(longitudeT32, latitudeT32) : null;
+    }
+
+}
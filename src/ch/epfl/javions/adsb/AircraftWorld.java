@@ -0,0 +1,155 @@
+package ch.epfl.javions.adsb;
+
+import ch.epfl.javions.aircraft.IcaoAddress;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Current state of all the aircraft, published as successive immutable generations.
+ * <p>
+ * The aircraft of a generation are split into a fixed number of buckets, by address, each bucket being an immutable
+ * map. A publication only copies the buckets containing the aircraft it changes, and shares the other ones with the
+ * previous generation, so that its cost depends on the number of aircraft changed rather than on the total number of
+ * aircraft. The generations are published through a single atomic reference, without any lock : concurrent writers
+ * redo their publication on top of the one that was published first. A reader therefore gets a consistent view of all
+ * the aircraft with one volatile read, from any thread, and can keep using it for as long as it wants.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class AircraftWorld {
+    private static final int BUCKET_COUNT = 1 << 8;
+    private final AtomicReference<Generation> current;
+
+    /**
+     * Creates a world without any aircraft
+     */
+    public AircraftWorld() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<IcaoAddress, AircraftSnapshot>[] buckets = new Map[BUCKET_COUNT];
+        Arrays.fill(buckets, Map.of());
+        this.current = new AtomicReference<>(new Generation(0, new SnapshotMap(buckets, 0)));
+    }
+
+    /**
+     * Returns the last published generation
+     *
+     * @return last published generation
+     */
+    public Generation current() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the snapshots of the given aircraft, removes the other given aircraft, and publishes the resulting
+     * generation
+     *
+     * @param changed (Collection<AircraftSnapshot>) : new snapshots of the aircraft whose state changed
+     * @param removed (Collection<IcaoAddress>) : addresses of the aircraft to remove
+     */
+    public void publish(Collection<AircraftSnapshot> changed, Collection<IcaoAddress> removed) {
+        if (changed.isEmpty() && removed.isEmpty()) return;
+        for (; ; ) {
+            Generation previous = current.get();
+            SnapshotMap previousAircraft = (SnapshotMap) previous.aircraft();
+
+            Map<Integer, Map<IcaoAddress, AircraftSnapshot>> changedBuckets = new HashMap<>();
+            for (AircraftSnapshot snapshot : changed) {
+                IcaoAddress icao = snapshot.icaoAddress();
+                bucketCopy(changedBuckets, previousAircraft, icao).put(icao, snapshot);
+            }
+            for (IcaoAddress icao : removed) bucketCopy(changedBuckets, previousAircraft, icao).remove(icao);
+
+            Map<IcaoAddress, AircraftSnapshot>[] buckets = previousAircraft.buckets.clone();
+            int size = previousAircraft.size;
+            for (Map.Entry<Integer, Map<IcaoAddress, AircraftSnapshot>> bucket : changedBuckets.entrySet()) {
+                int index = bucket.getKey();
+                size += bucket.getValue().size() - buckets[index].size();
+                buckets[index] = Map.copyOf(bucket.getValue());
+            }
+
+            Generation next = new Generation(previous.number() + 1, new SnapshotMap(buckets, size));
+            if (current.compareAndSet(previous, next)) return;
+        }
+    }
+
+    /**
+     * Returns the modifiable copy of the bucket of the given aircraft, made from the bucket of the given map if there
+     * is none yet
+     */
+    private static Map<IcaoAddress, AircraftSnapshot> bucketCopy(
+            Map<Integer, Map<IcaoAddress, AircraftSnapshot>> changedBuckets, SnapshotMap aircraft, IcaoAddress icao) {
+        return changedBuckets.computeIfAbsent(bucketIndex(icao), i -> new HashMap<>(aircraft.buckets[i]));
+    }
+
+    /**
+     * Returns the index of the bucket of the given aircraft
+     */
+    private static int bucketIndex(Object icao) {
+        int hash = icao.hashCode();
+        return (hash ^ (hash >>> 16)) & (BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Immutable state of all the aircraft at the time of a publication
+     *
+     * @param number   (long) : number of the generation, which increases with every publication
+     * @param aircraft (Map<IcaoAddress, AircraftSnapshot>) : unmodifiable map from the address of each aircraft to
+     *                 its snapshot
+     */
+    public record Generation(long number, Map<IcaoAddress, AircraftSnapshot> aircraft) {
+    }
+
+    /**
+     * Unmodifiable map made of the immutable buckets of a generation
+     */
+    private static final class SnapshotMap extends AbstractMap<IcaoAddress, AircraftSnapshot> {
+        private final Map<IcaoAddress, AircraftSnapshot>[] buckets;
+        private final int size;
+        private final Set<Entry<IcaoAddress, AircraftSnapshot>> entrySet;
+
+        /**
+         * Creates the map made of the given buckets, containing the given number of aircraft in total
+         *
+         * @param buckets (Map<IcaoAddress, AircraftSnapshot>[]) : buckets, which are not modified afterwards
+         * @param size    (int) : number of aircraft in the buckets
+         */
+        private SnapshotMap(Map<IcaoAddress, AircraftSnapshot>[] buckets, int size) {
+            this.buckets = buckets;
+            this.size = size;
+            this.entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<IcaoAddress, AircraftSnapshot>> iterator() {
+                    return Arrays.stream(buckets).flatMap(b -> b.entrySet().stream()).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        @Override
+        public AircraftSnapshot get(Object icao) {
+            return icao == null ? null : buckets[bucketIndex(icao)].get(icao);
+        }
+
+        @Override
+        public boolean containsKey(Object icao) {
+            return get(icao) != null;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<IcaoAddress, AircraftSnapshot>> entrySet() {
+            return entrySet;
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package ch.epfl.javions.adsb;
+
+import ch.epfl.javions.Preconditions;
+
+/**
+ * Detects raw messages identical to a message received shortly before, as produced by aircraft repeating the same
+ * frame or by several receivers picking up the same frame.
+ * <p>
+ * The bits of the messages are stored as two longs in two open-addressing hash tables, one per generation : new
+ * messages go into the current generation, which becomes the previous one once it is as old as the time window (or
+ * half full), the previous one being then reused as the new current one. A generation is emptied in constant time by
+ * changing its stamp, so that the filter never allocates memory once created.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class DuplicateFilter {
+    /**
+     * Default time window, in nanoseconds, during which a repeated message is considered as a duplicate
+     */
+    public static final long DEFAULT_WINDOW_NS = 1_000_000_000L;
+    /**
+     * Default number of slots of each generation
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private final long windowNs;
+    private final int mask;
+    private final Generation[] generations;
+    private int current;
+    private long currentStartNs;
+    private long duplicateCount;
+
+    /**
+     * Creates an empty filter
+     *
+     * @param windowNs (long) : time window, in nanoseconds, during which a repeated message is a duplicate
+     * @param capacity (int) : number of slots of each generation, must be a power of two
+     * @throws IllegalArgumentException if the window is not strictly positive or if the capacity is not a power of
+     *                                  two greater than or equal to 2
+     */
+    public DuplicateFilter(long windowNs, int capacity) {
+        Preconditions.checkArgument(windowNs > 0 && capacity > 1 && Integer.bitCount(capacity) == 1);
+        this.windowNs = windowNs;
+        this.mask = capacity - 1;
+        this.generations = new Generation[]{new Generation(capacity), new Generation(capacity)};
+        this.currentStartNs = -2 * windowNs; // such that the first message starts a new generation
+    }
+
+    /**
+     * Creates an empty filter with the default time window (1 second) and capacity
+     */
+    public DuplicateFilter() {
+        this(DEFAULT_WINDOW_NS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the number of duplicates detected so far
+     *
+     * @return number of duplicates detected so far
+     */
+    public long duplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Checks if the given message is identical to a message received less than the time window before it, and
+     * remembers it otherwise
+     *
+     * @param rawMessage (RawMessage) : message received
+     * @return true if the message is a duplicate
+     */
+    public boolean isDuplicate(RawMessage rawMessage) {
+        return isDuplicate(rawMessage.timeStampNs(), rawMessage.firstHalf(), rawMessage.secondHalf());
+    }
+
+    /**
+     * Checks if the message with the given timestamp and bits is identical to a message received less than the
+     * time window before it, and remembers it otherwise
+     *
+     * @param timeStampNs (long) : timestamp of the message, in nanoseconds
+     * @param firstHalf   (long) : first seven bytes of the message (see RawMessage.firstHalf)
+     * @param secondHalf  (long) : last seven bytes of the message (see RawMessage.secondHalf)
+     * @return true if the message is a duplicate
+     */
+    public boolean isDuplicate(long timeStampNs, long firstHalf, long secondHalf) {
+        Generation currentGeneration = generations[current];
+        if (timeStampNs - currentStartNs >= windowNs || currentGeneration.size > (mask >> 1)) {
+            if (timeStampNs - currentStartNs >= 2 * windowNs) generations[current].clear();
+            current ^= 1;
+            currentGeneration = generations[current];
+            currentGeneration.clear();
+            currentStartNs = timeStampNs;
+        }
+
+        int hash = hash(firstHalf, secondHalf);
+        Generation previousGeneration = generations[current ^ 1];
+        int previousSlot = previousGeneration.find(hash, firstHalf, secondHalf);
+        if (previousSlot >= 0 && timeStampNs - previousGeneration.timeStamps[previousSlot] < windowNs) {
+            ++duplicateCount;
+            return true;
+        }
+
+        int slot = currentGeneration.find(hash, firstHalf, secondHalf);
+        if (slot >= 0) {
+            if (timeStampNs - currentGeneration.timeStamps[slot] < windowNs) {
+                ++duplicateCount;
+                return true;
+            }
+            currentGeneration.timeStamps[slot] = timeStampNs;
+        } else {
+            currentGeneration.add(~slot, timeStampNs, firstHalf, secondHalf);
+        }
+        return false;
+    }
+
+    /**
+     * Mixes the bits of a message into the index of its first slot
+     */
+    private int hash(long firstHalf, long secondHalf) {
+        long h = (firstHalf * HASH_MULTIPLIER) ^ secondHalf;
+        h *= HASH_MULTIPLIER;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * Hash table of the messages of one generation. A slot is used if and only if its stamp is the current stamp of
+     * the generation.
+     */
+    private final class Generation {
+        private final long[] firstHalves;
+        private final long[] secondHalves;
+        private final long[] timeStamps;
+        private final int[] stamps;
+        private int stamp;
+        private int size;
+
+        private Generation(int capacity) {
+            this.firstHalves = new long[capacity];
+            this.secondHalves = new long[capacity];
+            this.timeStamps = new long[capacity];
+            this.stamps = new int[capacity];
+            this.stamp = 1;
+        }
+
+        /**
+         * Empties the generation in constant time
+         */
+        private void clear() {
+            ++stamp;
+            size = 0;
+        }
+
+        /**
+         * Returns the slot containing the given message, or the bitwise complement of the free slot where it
+         * should be added if it is not in the generation
+         */
+        private int find(int hash, long firstHalf, long secondHalf) {
+            for (int slot = hash; ; slot = (slot + 1) & mask) {
+                if (stamps[slot] != stamp) return ~slot;
+                if (firstHalves[slot] == firstHalf && secondHalves[slot] == secondHalf) return slot;
+            }
+        }
+
+        /**
+         * Adds a message to the given free slot
+         */
+        private void add(int slot, long timeStampNs, long firstHalf, long secondHalf) {
+            stamps[slot] = stamp;
+            firstHalves[slot] = firstHalf;
+            secondHalves[slot] = secondHalf;
+            timeStamps[slot] = timeStampNs;
+            ++size;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package ch.epfl.javions.adsb;
+
+import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.aircraft.IcaoAddress;
+
+import java.util.Objects;
+
+/**
+ * Represents the state of an aircraft as plain fields, without any JavaFX property. It can be used as the state
+ * setter of an aircraft state accumulator wherever no graphical interface is available.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MutableAircraftState implements AircraftStateSetter {
+    private final IcaoAddress icaoAddress;
+    private long lastMessageTimeStampNs;
+    private int category;
+    private CallSign callSign;
+    private GeoPos position;
+    private double altitude;
+    private double velocity;
+    private double trackOrHeading;
+
+    /**
+     * Creates the state of an aircraft whose altitude and velocity are still unknown
+     *
+     * @param icaoAddress (IcaoAddress) : ICAO address of the aircraft
+     * @throws NullPointerException if the ICAO address is null
+     */
+    public MutableAircraftState(IcaoAddress icaoAddress) {
+        this.icaoAddress = Objects.requireNonNull(icaoAddress);
+        this.altitude = Double.NEGATIVE_INFINITY;
+        this.velocity = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Returns the ICAO address of the aircraft
+     *
+     * @return ICAO address of the aircraft
+     */
+    public IcaoAddress getIcaoAddress() {
+        return icaoAddress;
+    }
+
+    @Override
+    public void setLastMessageTimeStampNs(long timeStampNs) {
+        this.lastMessageTimeStampNs = timeStampNs;
+    }
+
+    /**
+     * Returns the timestamp of the last message received from the aircraft
+     *
+     * @return timestamp of the last message, in nanoseconds
+     */
+    public long getLastMessageTimeStampNs() {
+        return lastMessageTimeStampNs;
+    }
+
+    @Override
+    public void setCategory(int category) {
+        this.category = category;
+    }
+
+    /**
+     * Returns the category of the aircraft
+     *
+     * @return category of the aircraft
+     */
+    public int getCategory() {
+        return category;
+    }
+
+    @Override
+    public void setCallSign(CallSign callSign) {
+        this.callSign = callSign;
+    }
+
+    /**
+     * Returns the call sign of the aircraft
+     *
+     * @return call sign of the aircraft, or null if it is still unknown
+     */
+    public CallSign getCallSign() {
+        return callSign;
+    }
+
+    @Override
+    public void setPosition(GeoPos position) {
+        this.position = position;
+    }
+
+    /**
+     * Returns the position of the aircraft
+     *
+     * @return position of the aircraft, or null if it is still unknown
+     */
+    public GeoPos getPosition() {
+        return position;
+    }
+
+    @Override
+    public void setAltitude(double altitude) {
+        this.altitude = altitude;
+    }
+
+    /**
+     * Returns the altitude of the aircraft
+     *
+     * @return altitude of the aircraft, or negative infinity if it is still unknown
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    @Override
+    public void setVelocity(double velocity) {
+        this.velocity = velocity;
+    }
+
+    /**
+     * Returns the velocity of the aircraft
+     *
+     * @return velocity of the aircraft, or negative infinity if it is still unknown
+     */
+    public double getVelocity() {
+        return velocity;
+    }
+
+    @Override
+    public void setTrackOrHeading(double trackOrHeading) {
+        this.trackOrHeading = trackOrHeading;
+    }
+
+    /**
+     * Returns the direction of the aircraft
+     *
+     * @return direction of the aircraft
+     */
+    public double getTrackOrHeading() {
+        return trackOrHeading;
+    }
+
+}
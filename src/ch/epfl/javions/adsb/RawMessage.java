@@ -26,6 +26,11 @@ public record RawMessage(long timeStampNs, ByteString bytes) {
      * Constant down link format size
      */
     public static final int DF_SIZE = 17;
+
+    /**
+     * Length in bytes of each of the two halves of a message, as returned by firstHalf and secondHalf
+     */
+    public static final int HALF_LENGTH = LENGTH / 2;
     private static final Crc24 CRC_24 = new Crc24(Crc24.GENERATOR);
     private static final HexFormat HEX_FORMAT = HexFormat.of().withUpperCase();
 
@@ -50,6 +55,24 @@ public record RawMessage(long timeStampNs, ByteString bytes) {
         return (CRC_24.crc(bytes) != 0) ? null : new RawMessage(timeStampNs, new ByteString(bytes));
     }
 
+    /**
+     * Returns the raw ADS-B message whose bytes are given by its two halves, without checking its CRC
+     *
+     * @param timeStampNs (long) : timestamp
+     * @param firstHalf   (long) : first seven bytes of the message, as returned by firstHalf
+     * @param secondHalf  (long) : last seven bytes of the message, as returned by secondHalf
+     * @return : raw ADS-B message made of the two halves
+     */
+    public static RawMessage ofHalves(long timeStampNs, long firstHalf, long secondHalf) {
+        byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < HALF_LENGTH; ++i) {
+            int shift = Byte.SIZE * (HALF_LENGTH - 1 - i);
+            bytes[i] = (byte) (firstHalf >>> shift);
+            bytes[HALF_LENGTH + i] = (byte) (secondHalf >>> shift);
+        }
+        return new RawMessage(timeStampNs, new ByteString(bytes));
+    }
+
     /**
      * Returns the size of a message whose first byte is the given one
      *
@@ -97,6 +120,24 @@ public record RawMessage(long timeStampNs, ByteString bytes) {
         return bytes.bytesInRange(4, 11);
     }
 
+    /**
+     * Returns the first seven bytes of the message, the first one being the most significant
+     *
+     * @return : the first half of the message
+     */
+    public long firstHalf() {
+        return bytes.bytesInRange(0, HALF_LENGTH);
+    }
+
+    /**
+     * Returns the last seven bytes of the message, the last one being the least significant
+     *
+     * @return : the second half of the message
+     */
+    public long secondHalf() {
+        return bytes.bytesInRange(HALF_LENGTH, LENGTH);
+    }
+
     /**
      * Returns the type code of the message
      *
@@ -0,0 +1,268 @@
+package ch.epfl.javions.adsb;
+
+import ch.epfl.javions.Preconditions;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a bounded queue of raw messages between exactly one producer thread and one consumer thread. The
+ * messages are stored in primitive slots, so that neither adding nor removing a message allocates memory, and the
+ * indices of both threads are padded to lie on different cache lines. What happens when the queue is full depends on
+ * its overflow policy.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class RawMessageRingBuffer {
+    private static final int DROP_OLDEST_BATCH_SIZE = 1 << 10;
+    private static final long BLOCKED_PARK_NS = 100_000;
+    private final long[] timeStamps;
+    private final long[] firstHalves;
+    private final long[] secondHalves;
+    private final int mask;
+    private final OverflowPolicy overflowPolicy;
+    private final PaddedIndex head; // index of the next slot to read, only increased by the producer if DROP_OLDEST
+    private final PaddedIndex tail; // index of the next slot to write, only written by the producer
+    private final AtomicLong overflowCount;
+    private final long[] batchTimeStamps;
+    private final long[] batchFirstHalves;
+    private final long[] batchSecondHalves;
+    private long cachedHead; // last value of head seen by the producer
+    private long cachedTail; // last value of tail seen by the consumer
+
+    /**
+     * Policy applied when a message is added to a full buffer
+     */
+    public enum OverflowPolicy {
+        /**
+         * The producer waits until the consumer has removed a message
+         */
+        BLOCK,
+        /**
+         * The oldest message of the buffer is dropped to make room for the new one
+         */
+        DROP_OLDEST,
+        /**
+         * The new message is dropped
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * Creates an empty ring buffer
+     *
+     * @param capacity       (int) : maximum number of messages in the buffer, must be a power of two
+     * @param overflowPolicy (OverflowPolicy) : policy applied when a message is added to a full buffer
+     * @throws IllegalArgumentException if the capacity is not a strictly positive power of two
+     * @throws NullPointerException     if the overflow policy is null
+     */
+    public RawMessageRingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1);
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.timeStamps = new long[capacity];
+        this.firstHalves = new long[capacity];
+        this.secondHalves = new long[capacity];
+        this.mask = capacity - 1;
+        this.head = new PaddedIndex();
+        this.tail = new PaddedIndex();
+        this.overflowCount = new AtomicLong();
+
+        // with DROP_OLDEST, the producer can overwrite a slot while it is being read, so the consumer first copies the
+        // slots and only passes them on once it is sure that they were not dropped in the meantime
+        int batchSize = overflowPolicy == OverflowPolicy.DROP_OLDEST ? Math.min(capacity, DROP_OLDEST_BATCH_SIZE) : 0;
+        this.batchTimeStamps = new long[batchSize];
+        this.batchFirstHalves = new long[batchSize];
+        this.batchSecondHalves = new long[batchSize];
+    }
+
+    /**
+     * Creates an empty ring buffer that drops the new messages when it is full
+     *
+     * @param capacity (int) : maximum number of messages in the buffer, must be a power of two
+     * @throws IllegalArgumentException if the capacity is not a strictly positive power of two
+     */
+    public RawMessageRingBuffer(int capacity) {
+        this(capacity, OverflowPolicy.DROP_NEWEST);
+    }
+
+    /**
+     * Returns the maximum number of messages in the buffer
+     *
+     * @return maximum number of messages in the buffer
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the policy applied when a message is added to a full buffer
+     *
+     * @return policy applied when the buffer is full
+     */
+    public OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Returns the number of messages currently in the buffer (which can be outdated as soon as it is returned)
+     *
+     * @return number of messages currently in the buffer
+     */
+    public int size() {
+        return (int) Math.max(tail.get() - head.get(), 0);
+    }
+
+    /**
+     * Returns the number of messages added while the buffer was full, i.e. the number of messages dropped (with
+     * DROP_OLDEST and DROP_NEWEST) or the number of times the producer had to wait (with BLOCK)
+     *
+     * @return number of messages added while the buffer was full
+     */
+    public long overflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Adds a message at the end of the buffer. Must only be called by the producer thread.
+     *
+     * @param rawMessage (RawMessage) : message to add
+     * @return true if the message was added, false if it was dropped because the buffer was full
+     */
+    public boolean offer(RawMessage rawMessage) {
+        return offer(rawMessage.timeStampNs(), rawMessage.firstHalf(), rawMessage.secondHalf());
+    }
+
+    /**
+     * Adds the message with the given timestamp and bits at the end of the buffer. Must only be called by the producer
+     * thread.
+     *
+     * @param timeStampNs (long) : timestamp of the message, in nanoseconds
+     * @param firstHalf   (long) : first seven bytes of the message (see RawMessage.firstHalf)
+     * @param secondHalf  (long) : last seven bytes of the message (see RawMessage.secondHalf)
+     * @return true if the message was added, false if it was dropped because the buffer was full
+     */
+    public boolean offer(long timeStampNs, long firstHalf, long secondHalf) {
+        long t = tail.get();
+        if (t - cachedHead > mask && t - (cachedHead = head.get()) > mask) {
+            switch (overflowPolicy) {
+                case DROP_NEWEST -> {
+                    overflowCount.incrementAndGet();
+                    return false;
+                }
+                case DROP_OLDEST -> {
+                    // fails only if the consumer removed messages in the meantime, in which case there is room
+                    if (head.compareAndSet(cachedHead, cachedHead + 1)) overflowCount.incrementAndGet();
+                }
+                case BLOCK -> {
+                    overflowCount.incrementAndGet();
+                    while (t - (cachedHead = head.get()) > mask) LockSupport.parkNanos(BLOCKED_PARK_NS);
+                }
+            }
+        }
+        int slot = (int) t & mask;
+        timeStamps[slot] = timeStampNs;
+        firstHalves[slot] = firstHalf;
+        secondHalves[slot] = secondHalf;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes at most the given number of messages from the start of the buffer and passes them, in order, to the
+     * given consumer. Must only be called by the consumer thread.
+     *
+     * @param consumer    (SlotConsumer) : consumer of the messages removed
+     * @param maxMessages (int) : maximum number of messages to remove
+     * @return number of messages removed
+     */
+    public int drain(SlotConsumer consumer, int maxMessages) {
+        return overflowPolicy == OverflowPolicy.DROP_OLDEST ?
+                drainCopies(consumer, maxMessages) :
+                drainInPlace(consumer, maxMessages);
+    }
+
+    /**
+     * Removes all the messages currently in the buffer, in batches of at most the given number of messages, and
+     * passes them, in order, to the given consumer. Must only be called by the consumer thread.
+     *
+     * @param consumer  (SlotConsumer) : consumer of the messages removed
+     * @param batchSize (int) : maximum number of messages removed at once
+     * @return number of messages removed
+     */
+    public int drainAll(SlotConsumer consumer, int batchSize) {
+        int total = 0;
+        for (int count; (count = drain(consumer, batchSize)) > 0; ) total += count;
+        return total;
+    }
+
+    /**
+     * Returns the number of messages that can be removed, reading the tail only if the cached one is not enough
+     */
+    private int available(long h, int maxMessages) {
+        if (cachedTail - h < maxMessages) cachedTail = tail.get();
+        return (int) Math.min(cachedTail - h, maxMessages);
+    }
+
+    /**
+     * Passes the messages to the consumer directly from their slots, since the producer never overwrites them
+     */
+    private int drainInPlace(SlotConsumer consumer, int maxMessages) {
+        long h = head.get();
+        int count = available(h, maxMessages);
+        for (int i = 0; i < count; ++i) {
+            int slot = (int) (h + i) & mask;
+            consumer.accept(timeStamps[slot], firstHalves[slot], secondHalves[slot]);
+        }
+        head.lazySet(h + count);
+        return count;
+    }
+
+    /**
+     * Copies the messages before removing them, retrying if the producer dropped some of them during the copy
+     */
+    private int drainCopies(SlotConsumer consumer, int maxMessages) {
+        long h;
+        int count;
+        do {
+            h = head.get();
+            count = available(h, Math.min(maxMessages, batchTimeStamps.length));
+            for (int i = 0; i < count; ++i) {
+                int slot = (int) (h + i) & mask;
+                batchTimeStamps[i] = timeStamps[slot];
+                batchFirstHalves[i] = firstHalves[slot];
+                batchSecondHalves[i] = secondHalves[slot];
+            }
+        } while (count > 0 && !head.compareAndSet(h, h + count));
+        for (int i = 0; i < count; ++i) consumer.accept(batchTimeStamps[i], batchFirstHalves[i], batchSecondHalves[i]);
+        return count;
+    }
+
+    /**
+     * Consumer of the messages removed from the buffer, given as primitive values
+     */
+    @FunctionalInterface
+    public interface SlotConsumer {
+
+        /**
+         * Receives a message removed from the buffer
+         *
+         * @param timeStampNs (long) : timestamp of the message, in nanoseconds
+         * @param firstHalf   (long) : first seven bytes of the message (see RawMessage.firstHalf)
+         * @param secondHalf  (long) : last seven bytes of the message (see RawMessage.secondHalf)
+         */
+        void accept(long timeStampNs, long firstHalf, long secondHalf);
+    }
+
+    /**
+     * Index padded with unused fields, so that the indices of the producer and the consumer (and the fields of the
+     * buffer) do not share a cache line
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedIndex extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+}
@@ -18,7 +18,9 @@ public final class AdsbDemodulator {
      */
     public static final int WINDOW_SIZE = 1200;
     private static final int SAMPLES_OF_PREAMBLE = 80;
+    private static final int SAMPLES_PER_POWER_SAMPLE = 2;
     private final PowerWindow powerWindow;
+    private long crcRejectCount;
 
     /**
      * Creates a power window of size WINDOW_SIZE (1200)
@@ -54,6 +56,7 @@ public final class AdsbDemodulator {
                         powerWindow.advanceBy(WINDOW_SIZE);
                         return rM;
                     }
+                    ++crcRejectCount;
                 }
             }
             powerWindow.advance();
@@ -62,6 +65,24 @@ public final class AdsbDemodulator {
         return null;
     }
 
+    /**
+     * Returns the number of samples the window has gone over since the start of the stream
+     *
+     * @return : number of samples (not power samples) processed so far
+     */
+    public long samplesProcessed() {
+        return powerWindow.position() * SAMPLES_PER_POWER_SAMPLE;
+    }
+
+    /**
+     * Returns the number of frames that had a valid preamble and down link format but were rejected by the CRC
+     *
+     * @return : number of frames rejected because of their CRC
+     */
+    public long crcRejectCount() {
+        return crcRejectCount;
+    }
+
     /**
      * Calculates the sum of the peaks. i.e. where the carrier should be transmitted
      *
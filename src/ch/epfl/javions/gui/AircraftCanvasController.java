@@ -0,0 +1,300 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Units;
+import ch.epfl.javions.WebMercator;
+import ch.epfl.javions.adsb.AircraftSnapshot;
+import ch.epfl.javions.adsb.AircraftWorld;
+import ch.epfl.javions.aircraft.*;
+import javafx.application.Platform;
+import javafx.beans.property.ObjectProperty;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.*;
+
+/**
+ * Manages the view of the aircraft by drawing all of them on a single canvas, an alternative to AircraftController
+ * meant for thousands of aircraft.
+ * <p>
+ * The aircraft are drawn once per pulse, when the world or the map changed, from the snapshots of the last generation
+ * of the world, in increasing order of altitude. Their icons are taken from a sprite atlas, in which they are
+ * rasterized once per icon, color and rotation, and then only copied on the canvas. The selection is done by looking,
+ * in code, for the topmost icon having an opaque pixel under the mouse.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class AircraftCanvasController {
+    private static final String EMPTY = "";
+    private static final int MIN_ZOOM_FOR_LABEL = 11;
+    private static final double MAX_SPRITE_SIZE = 40;
+    private static final double LABEL_OFFSET = 5;
+    private static final double LABEL_PADDING = 2;
+    private static final double LABEL_ARC = 4;
+    private static final Font LABEL_FONT = Font.font(10);
+    private static final Color LABEL_FILL = Color.hsb(0, 0, 0, 0.4);
+    private static final Color LABEL_STROKE = Color.hsb(0, 0, 0, 0.5);
+    private static final Comparator<AircraftSnapshot> BY_ALTITUDE =
+            Comparator.comparingDouble(AircraftSnapshot::altitude);
+    private final MapParameters mapParams;
+    private final AircraftWorld world;
+    private final Map<IcaoAddress, ObservableAircraftState> statesByAddress;
+    private final ObjectProperty<ObservableAircraftState> selectedAircraftState;
+    private final Pane pane;
+    private final Canvas canvas;
+    private final SpriteAtlas spriteAtlas;
+    private final Map<IcaoAddress, LabelText> labels;
+    private final Text labelMeasurer;
+    private final List<AircraftSnapshot> visibleAircraft;
+    private final List<DrawnIcon> drawnIcons;
+    private long drawnGeneration;
+    private boolean redrawNeeded;
+
+    /**
+     * Creates the controller drawing the aircraft of the given world
+     *
+     * @param mapParams             (MapParameters) : map parameters
+     * @param world                 (AircraftWorld) : world containing the snapshots of the aircraft to draw
+     * @param aircraftStates        (ObservableSet<ObservableAircraftState>) : set containing all aircraft states,
+     *                              among which the selected one is chosen
+     * @param selectedAircraftState (ObjectProperty<ObservableAircraftState>) : selected aircraft state, with the mouse
+     */
+    public AircraftCanvasController(MapParameters mapParams, AircraftWorld world,
+                                    ObservableSet<ObservableAircraftState> aircraftStates,
+                                    ObjectProperty<ObservableAircraftState> selectedAircraftState) {
+        this.mapParams = mapParams;
+        this.world = world;
+        this.statesByAddress = new HashMap<>();
+        this.selectedAircraftState = selectedAircraftState;
+        this.spriteAtlas = new SpriteAtlas();
+        this.labels = new HashMap<>();
+        this.labelMeasurer = new Text();
+        this.visibleAircraft = new ArrayList<>();
+        this.drawnIcons = new ArrayList<>();
+        this.drawnGeneration = -1;
+        labelMeasurer.setFont(LABEL_FONT);
+
+        canvas = new Canvas();
+        canvas.setMouseTransparent(true);
+        Pane trajectoryPane = new TrajectoryCanvas(mapParams, selectedAircraftState).pane();
+        pane = new Pane(trajectoryPane, canvas);
+        pane.setPickOnBounds(false);
+        trajectoryPane.prefWidthProperty().bind(pane.widthProperty());
+        trajectoryPane.prefHeightProperty().bind(pane.heightProperty());
+        canvas.widthProperty().bind(pane.widthProperty());
+        canvas.heightProperty().bind(pane.heightProperty());
+
+        // the canvas lets the mouse events go to the map, and only the clicks on an icon are kept
+        pane.sceneProperty().addListener((p, oldS, newS) -> {
+            if (newS == null) return;
+            newS.addPreLayoutPulseListener(this::redrawIfNeeded);
+            newS.addEventFilter(MouseEvent.MOUSE_CLICKED, this::selectClickedAircraft);
+        });
+        canvas.widthProperty().addListener(o -> redrawOnNextPulse());
+        canvas.heightProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.minXProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.minYProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.zoomProperty().addListener(o -> redrawOnNextPulse());
+        selectedAircraftState.addListener(o -> redrawOnNextPulse());
+
+        // the selected aircraft is found by address, without going through all of them
+        for (ObservableAircraftState oas : aircraftStates) statesByAddress.put(oas.getIcaoAddress(), oas);
+        aircraftStates.addListener((SetChangeListener<ObservableAircraftState>) change -> {
+            if (change.wasAdded()) {
+                ObservableAircraftState added = change.getElementAdded();
+                statesByAddress.put(added.getIcaoAddress(), added);
+            } else if (change.wasRemoved()) {
+                ObservableAircraftState removed = change.getElementRemoved();
+                statesByAddress.remove(removed.getIcaoAddress(), removed);
+            }
+        });
+    }
+
+    /**
+     * Returns the pane on which all aircraft are drawn
+     *
+     * @return pane on which all aircraft are drawn
+     */
+    public Pane pane() {
+        return pane;
+    }
+
+    /**
+     * Requests the aircraft to be drawn again on the next pulse, even if the world did not change
+     */
+    private void redrawOnNextPulse() {
+        redrawNeeded = true;
+        Platform.requestNextPulse();
+    }
+
+    /**
+     * Draws the aircraft if the world or the map changed since they were last drawn
+     */
+    private void redrawIfNeeded() {
+        AircraftWorld.Generation generation = world.current();
+        if (!redrawNeeded && generation.number() == drawnGeneration) return;
+        redrawNeeded = false;
+        drawnGeneration = generation.number();
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth(), height = canvas.getHeight();
+        gc.clearRect(0, 0, width, height);
+
+        int zoom = mapParams.getZoom();
+        double minX = mapParams.getMinX(), minY = mapParams.getMinY();
+        visibleAircraft.clear();
+        for (AircraftSnapshot snapshot : generation.aircraft().values()) {
+            if (!snapshot.hasPosition()) continue;
+            double x = x(snapshot, zoom) - minX, y = y(snapshot, zoom) - minY;
+            if (x >= -MAX_SPRITE_SIZE && x <= width + MAX_SPRITE_SIZE
+                    && y >= -MAX_SPRITE_SIZE && y <= height + MAX_SPRITE_SIZE) visibleAircraft.add(snapshot);
+        }
+        visibleAircraft.sort(BY_ALTITUDE);
+
+        ObservableAircraftState selected = selectedAircraftState.get();
+        IcaoAddress selectedIcao = selected != null ? selected.getIcaoAddress() : null;
+        drawnIcons.clear();
+        for (AircraftSnapshot snapshot : visibleAircraft) {
+            double x = x(snapshot, zoom) - minX, y = y(snapshot, zoom) - minY;
+            if (zoom >= MIN_ZOOM_FOR_LABEL || snapshot.icaoAddress().equals(selectedIcao)) {
+                drawLabel(gc, snapshot, x, y);
+            }
+            drawIcon(gc, snapshot, x, y);
+        }
+
+        if (labels.size() > 2 * generation.aircraft().size()) {
+            labels.keySet().retainAll(generation.aircraft().keySet());
+        }
+    }
+
+    /**
+     * Draws the icon of the given aircraft, whose position on the canvas is given, and remembers where it was drawn
+     */
+    private void drawIcon(GraphicsContext gc, AircraftSnapshot snapshot, double x, double y) {
+        SpriteAtlas.Sprite sprite = spriteAtlas.sprite(icon(snapshot), snapshot.altitude(), snapshot.trackOrHeading());
+        sprite.draw(gc, x, y);
+        drawnIcons.add(new DrawnIcon(snapshot.icaoAddress(), sprite, x, y));
+    }
+
+    /**
+     * Draws the label of the given aircraft, whose position on the canvas is given
+     */
+    private void drawLabel(GraphicsContext gc, AircraftSnapshot snapshot, double x, double y) {
+        String text = labelText(snapshot);
+        LabelText label = labels.get(snapshot.icaoAddress());
+        if (label == null || !label.text().equals(text)) {
+            labelMeasurer.setText(text);
+            Bounds bounds = labelMeasurer.getLayoutBounds();
+            label = new LabelText(text, bounds.getWidth(), bounds.getHeight());
+            labels.put(snapshot.icaoAddress(), label);
+        }
+
+        double left = x + LABEL_OFFSET, top = y + LABEL_OFFSET;
+        double width = label.width() + 2 * LABEL_PADDING, height = label.height() + 2 * LABEL_PADDING;
+        gc.setFill(LABEL_FILL);
+        gc.fillRoundRect(left, top, width, height, LABEL_ARC, LABEL_ARC);
+        gc.setStroke(LABEL_STROKE);
+        gc.setLineWidth(1);
+        gc.strokeRoundRect(left, top, width, height, LABEL_ARC, LABEL_ARC);
+
+        gc.setFont(LABEL_FONT);
+        gc.setTextBaseline(VPos.TOP);
+        gc.setFill(Color.BLACK);
+        gc.fillText(text, left + LABEL_PADDING, top + LABEL_PADDING);
+        gc.setStroke(Color.WHITE);
+        gc.strokeText(text, left + LABEL_PADDING, top + LABEL_PADDING);
+    }
+
+    /**
+     * Selects the aircraft whose icon is under the mouse, if there is one, in which case the click is consumed
+     */
+    private void selectClickedAircraft(MouseEvent e) {
+        if (!e.isStillSincePress()) return;
+        Point2D point = canvas.sceneToLocal(e.getSceneX(), e.getSceneY());
+        if (point == null || !canvas.getLayoutBounds().contains(point)) return;
+
+        // the icons drawn last are above the others
+        for (int i = drawnIcons.size() - 1; i >= 0; --i) {
+            DrawnIcon icon = drawnIcons.get(i);
+            if (!icon.sprite().contains(point.getX() - icon.x(), point.getY() - icon.y())) continue;
+            ObservableAircraftState oas = statesByAddress.get(icon.icaoAddress());
+            if (oas != null) {
+                selectedAircraftState.set(oas);
+                e.consume();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the icon of the given aircraft
+     */
+    private static AircraftIcon icon(AircraftSnapshot snapshot) {
+        AircraftData data = snapshot.aircraftData();
+        return (data == null) ?
+                AircraftIcon.iconFor(
+                        new AircraftTypeDesignator(EMPTY),
+                        new AircraftDescription(EMPTY),
+                        snapshot.category(),
+                        WakeTurbulenceCategory.UNKNOWN) :
+                AircraftIcon.iconFor(
+                        data.typeDesignator(),
+                        data.description(),
+                        snapshot.category(),
+                        data.wakeTurbulenceCategory());
+    }
+
+    /**
+     * Returns the text of the label of the given aircraft, the same as the one of the aircraft drawn as nodes
+     */
+    private static String labelText(AircraftSnapshot snapshot) {
+        return AircraftController.labelText(snapshot.aircraftData(), snapshot.callSign(), snapshot.icaoAddress(),
+                snapshot.velocity(), snapshot.altitude());
+    }
+
+    /**
+     * Returns the x coordinate of the given aircraft at the given zoom level
+     */
+    private static double x(AircraftSnapshot snapshot, int zoom) {
+        return WebMercator.x(zoom, Units.convertFrom(snapshot.longitudeT32(), Units.Angle.T32));
+    }
+
+    /**
+     * Returns the y coordinate of the given aircraft at the given zoom level
+     */
+    private static double y(AircraftSnapshot snapshot, int zoom) {
+        return WebMercator.y(zoom, Units.convertFrom(snapshot.latitudeT32(), Units.Angle.T32));
+    }
+
+    /**
+     * Text of a label, with its size
+     *
+     * @param text   (String) : text of the label
+     * @param width  (double) : width of the text
+     * @param height (double) : height of the text
+     */
+    private record LabelText(String text, double width, double height) {
+    }
+
+    /**
+     * Icon drawn on the canvas
+     *
+     * @param icaoAddress (IcaoAddress) : ICAO address of the aircraft
+     * @param sprite      (SpriteAtlas.Sprite) : sprite drawn
+     * @param x           (double) : x coordinate of the aircraft on the canvas
+     * @param y           (double) : y coordinate of the aircraft on the canvas
+     */
+    private record DrawnIcon(IcaoAddress icaoAddress, SpriteAtlas.Sprite sprite, double x, double y) {
+    }
+
+}
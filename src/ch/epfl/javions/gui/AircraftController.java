@@ -5,30 +5,30 @@ import ch.epfl.javions.Units;
 import ch.epfl.javions.WebMercator;
 import ch.epfl.javions.adsb.CallSign;
 import ch.epfl.javions.aircraft.*;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
-import javafx.beans.binding.ObjectBinding;
 import javafx.beans.property.*;
+import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.*;
 import javafx.scene.Group;
 import javafx.scene.Node;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.LinearGradient;
-import javafx.scene.paint.Paint;
-import javafx.scene.paint.Stop;
-import javafx.scene.shape.Line;
 import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.SVGPath;
 import javafx.scene.text.Text;
 
-import java.util.Iterator;
-
-import static javafx.scene.paint.CycleMethod.NO_CYCLE;
-import static ch.epfl.javions.gui.ObservableAircraftState.AirbornePos;
+import java.util.*;
 
 /**
  * Manages the view of the aircraft
+ * <p>
+ * Only the aircraft inside the visible portion of the map, or close to it, have nodes : the other ones are only kept
+ * in a spatial grid, in which the aircraft entering the visible portion are looked for when the map is moved or
+ * zoomed. The nodes of the aircraft leaving it are kept in a pool, and reused for the next aircraft entering it. An
+ * aircraft only loses its node when it is further from the visible portion than the distance at which it gets one,
+ * so that the aircraft at the edge of the map do not keep changing node.
  *
  * @author Leon Petrinos (357588)
  * @author Andrea Trugenberger (357615)
@@ -37,13 +37,21 @@ public final class AircraftController {
     private final MapParameters mapParams;
     private final ObjectProperty<ObservableAircraftState> selectedAircraftState;
     private final Pane pane;
+    private final AircraftGrid grid;
+    private final Map<ObservableAircraftState, ChangeListener<GeoPos>> positionListeners;
+    private final Map<ObservableAircraftState, AircraftView> shownViews;
+    private final Deque<AircraftView> viewPool;
+    private boolean cullingNeeded;
     private static final String INVALID_CHARACTER = "?";
     private static final String EMPTY = "";
     private static final String LABEL_STYLE_CLASS = "label";
     private static final String ICON_STYLE_CLASS = "aircraft";
-    private static final String TRAJECTORY_STYLE_CLASS = "trajectory";
     private static final int MIN_ZOOM_FOR_LABEL = 11;
-    private static final double APPROXIMATE_MAX_ALTITUDE = 12000d;
+    // distances (in pixels) from the visible portion of the map at which an aircraft gets and loses its node, large
+    // enough for its label to be entirely outside of the visible portion
+    private static final double SHOW_MARGIN = 128;
+    private static final double HIDE_MARGIN = 2 * SHOW_MARGIN;
+    private static final int MAX_POOLED_VIEWS = 256;
 
     /**
      * @param mapParams             (MapParameters) : map parameters
@@ -54,20 +62,36 @@ public final class AircraftController {
                               ObjectProperty<ObservableAircraftState> selectedAircraftState) {
         this.mapParams = mapParams;
         this.selectedAircraftState = selectedAircraftState;
+        this.grid = new AircraftGrid();
+        this.positionListeners = new HashMap<>();
+        this.shownViews = new HashMap<>();
+        this.viewPool = new ArrayDeque<>();
         pane = new Pane();
         pane.setPickOnBounds(false);
         pane.getStylesheets().add("aircraft.css");
 
+        Pane trajectoryPane = new TrajectoryCanvas(mapParams, selectedAircraftState).pane();
+        trajectoryPane.prefWidthProperty().bind(pane.widthProperty());
+        trajectoryPane.prefHeightProperty().bind(pane.heightProperty());
+        pane.getChildren().add(trajectoryPane);
+
         aircraftStates.addListener((SetChangeListener<ObservableAircraftState>) change -> {
             if (change.wasAdded()) {
-                ObservableAircraftState added = change.getElementAdded();
-                pane.getChildren().add(aircraft(added));
+                track(change.getElementAdded());
             } else if (change.wasRemoved()) {
-                ObservableAircraftState removed = change.getElementRemoved();
-                pane.getChildren().removeIf(n -> n.getId().equals(removed.getIcaoAddress().string()));
+                untrack(change.getElementRemoved());
             }
         });
+        aircraftStates.forEach(this::track);
 
+        pane.sceneProperty().addListener((p, oldS, newS) -> {
+            if (newS != null) newS.addPreLayoutPulseListener(this::cullIfNeeded);
+        });
+        pane.widthProperty().addListener(o -> cullOnNextPulse());
+        pane.heightProperty().addListener(o -> cullOnNextPulse());
+        mapParams.minXProperty().addListener(o -> cullOnNextPulse());
+        mapParams.minYProperty().addListener(o -> cullOnNextPulse());
+        mapParams.zoomProperty().addListener(o -> cullOnNextPulse());
     }
 
     /**
@@ -80,115 +104,168 @@ public final class AircraftController {
     }
 
     /**
-     * Node containing the annotated aircraft
+     * Starts following the position of the given aircraft, which gets a node if it is near the visible portion of the
+     * map
      *
      * @param oas (ObservableAircraftState) : aircraft state
-     * @return node containing the annotated aircraft
      */
-    private Node aircraft(ObservableAircraftState oas) {
-        Group aircraft = new Group(trajectory(oas), labelAndIcon(oas));
-        aircraft.setId(oas.getIcaoAddress().string());
-        aircraft.viewOrderProperty().bind(oas.altitudeProperty().negate());
-        return aircraft;
+    private void track(ObservableAircraftState oas) {
+        ChangeListener<GeoPos> positionListener = (p, oldPos, newPos) -> {
+            grid.put(oas, newPos);
+            boolean shown = shownViews.containsKey(oas);
+            if (shown && !isNearViewport(oas, HIDE_MARGIN)) {
+                hide(oas);
+            } else if (!shown && isNearViewport(oas, SHOW_MARGIN)) {
+                show(oas);
+            }
+        };
+        positionListeners.put(oas, positionListener);
+        oas.positionProperty().addListener(positionListener);
+        grid.put(oas, oas.getPosition());
+        if (isNearViewport(oas, SHOW_MARGIN)) show(oas);
     }
 
     /**
-     * Node containing the annotated aircraft
+     * Stops following the position of the given aircraft, and releases its node if it has one
      *
      * @param oas (ObservableAircraftState) : aircraft state
-     * @return node containing the annotated aircraft
      */
-    private Node trajectory(ObservableAircraftState oas) {
-        Group trajectory = new Group();
-        trajectory.getStyleClass().add(TRAJECTORY_STYLE_CLASS);
-
-        if (trajectory.visibleProperty().get()) {
-            ObservableList<AirbornePos> trajectoryList = oas.trajectory();
+    private void untrack(ObservableAircraftState oas) {
+        ChangeListener<GeoPos> positionListener = positionListeners.remove(oas);
+        if (positionListener != null) oas.positionProperty().removeListener(positionListener);
+        grid.remove(oas);
+        if (shownViews.containsKey(oas)) hide(oas);
+    }
 
-            trajectoryList.addListener((ListChangeListener<AirbornePos>) change ->
-                    addLinesToTrajectory(trajectoryList, trajectory));
+    /**
+     * Requests the nodes of the aircraft to be updated on the next pulse, after the map moved or was resized
+     */
+    private void cullOnNextPulse() {
+        cullingNeeded = true;
+        Platform.requestNextPulse();
+    }
 
-            mapParams.zoomProperty().addListener(o ->
-                    addLinesToTrajectory(trajectoryList, trajectory));
-        }
+    /**
+     * Releases the nodes of the aircraft that are now far from the visible portion of the map, and gives one to the
+     * aircraft that are now near it, found in the grid
+     */
+    private void cullIfNeeded() {
+        if (!cullingNeeded) return;
+        cullingNeeded = false;
+
+        shownViews.entrySet().removeIf(e -> {
+            if (isNearViewport(e.getKey(), HIDE_MARGIN)) return false;
+            release(e.getValue());
+            return true;
+        });
+        double minX = mapParams.getMinX(), minY = mapParams.getMinY();
+        grid.forEachNear(mapParams.getZoom(), minX - SHOW_MARGIN, minY - SHOW_MARGIN,
+                minX + pane.getWidth() + SHOW_MARGIN, minY + pane.getHeight() + SHOW_MARGIN, oas -> {
+                    if (!shownViews.containsKey(oas) && isNearViewport(oas, SHOW_MARGIN)) show(oas);
+                });
+        trimViewPool();
+    }
 
-        trajectory.layoutXProperty().bind(mapParams.minXProperty().negate());
-        trajectory.layoutYProperty().bind(mapParams.minYProperty().negate());
+    /**
+     * Checks if the given aircraft is at most at the given distance from the visible portion of the map
+     *
+     * @param oas    (ObservableAircraftState) : aircraft state
+     * @param margin (double) : distance from the visible portion of the map, in pixels
+     * @return true if the aircraft is at most at the given distance from the visible portion of the map
+     */
+    private boolean isNearViewport(ObservableAircraftState oas, double margin) {
+        GeoPos position = oas.getPosition();
+        double x = WebMercator.x(mapParams.getZoom(), position.longitude()) - mapParams.getMinX();
+        double y = WebMercator.y(mapParams.getZoom(), position.latitude()) - mapParams.getMinY();
+        return -margin <= x && x <= pane.getWidth() + margin && -margin <= y && y <= pane.getHeight() + margin;
+    }
 
-        trajectory.visibleProperty().bind(Bindings.createBooleanBinding(() ->
-                selectedAircraftState.get() != null && oas.equals(selectedAircraftState.get()), selectedAircraftState)
-        );
+    /**
+     * Gives a node to the given aircraft, taken from the pool if possible
+     *
+     * @param oas (ObservableAircraftState) : aircraft state
+     */
+    private void show(ObservableAircraftState oas) {
+        AircraftView view = viewPool.poll();
+        if (view == null) {
+            view = new AircraftView();
+            pane.getChildren().add(view.node);
+        }
+        view.state.set(oas);
+        view.node.setVisible(true);
+        shownViews.put(oas, view);
+    }
 
-        return trajectory;
+    /**
+     * Releases the node of the given aircraft, which must have one
+     *
+     * @param oas (ObservableAircraftState) : aircraft state
+     */
+    private void hide(ObservableAircraftState oas) {
+        release(shownViews.remove(oas));
+        trimViewPool();
     }
 
     /**
-     * Adds lines to the trajectory of an aircraft (to create the trajectory)
+     * Detaches the given view from its aircraft, and puts it in the pool
      *
-     * @param trajectoryList (ObservableList<ObservableAircraftState.AirbornePos>) :
-     *                       list of all positions of the aircraft
-     * @param trajectory     (Group) : group of the trajectory of the aircraft
+     * @param view (AircraftView) : view of an aircraft
      */
-    private void addLinesToTrajectory(ObservableList<AirbornePos> trajectoryList, Group trajectory) {
-        trajectory.getChildren().clear();
-
-        Iterator<AirbornePos> it = trajectoryList.iterator();
-        ObservableAircraftState.AirbornePos ap1 = null;
-        while (it.hasNext()) {
-            ObservableAircraftState.AirbornePos ap2 = it.next();
-            if (ap1 != null) {
-                GeoPos pos1 = ap1.position();
-                GeoPos pos2 = ap2.position();
-                int zoom = mapParams.getZoom();
-
-                Line line = new Line(
-                        WebMercator.x(zoom, pos1.longitude()),
-                        WebMercator.y(zoom, pos1.latitude()),
-                        WebMercator.x(zoom, pos2.longitude()),
-                        WebMercator.y(zoom, pos2.latitude()));
-
-                double alt1 = ap1.altitude();
-                double alt2 = ap2.altitude();
-
-                Paint paint;
-                if (alt1 == alt2) {
-                    paint = getColor(alt1);
-                } else {
-                    Color c1 = getColor(alt1), c2 = getColor(alt2);
-                    Stop s1 = new Stop(0, c1), s2 = new Stop(1, c2);
-                    paint = new LinearGradient(
-                            0, 0, 1, 0, true, NO_CYCLE, s1, s2);
-                }
-
-                line.setStroke(paint);
-                trajectory.getChildren().add(line);
-            }
+    private void release(AircraftView view) {
+        view.node.setVisible(false);
+        view.state.set(null);
+        viewPool.push(view);
+    }
 
-            ap1 = ap2;
-        }
+    /**
+     * Removes from the pane the views of the pool exceeding its maximum size
+     */
+    private void trimViewPool() {
+        if (viewPool.size() <= MAX_POOLED_VIEWS) return;
+        Set<Node> removedNodes = new HashSet<>();
+        while (viewPool.size() > MAX_POOLED_VIEWS) removedNodes.add(viewPool.pollLast().node);
+        pane.getChildren().removeAll(removedNodes);
+    }
 
+    /**
+     * Node containing the annotated aircraft whose state is the given one
+     *
+     * @param state (ObservableValue<ObservableAircraftState>) : aircraft state, or null if there is none
+     * @return node containing the annotated aircraft
+     */
+    private Node aircraft(ObservableValue<ObservableAircraftState> state) {
+        Group aircraft = new Group(labelAndIcon(state));
+        aircraft.idProperty().bind(state.map(oas -> oas.getIcaoAddress().string()));
+        aircraft.viewOrderProperty().bind(state.flatMap(ObservableAircraftState::altitudeProperty)
+                .map(altitude -> -altitude.doubleValue())
+                .orElse(0d));
+        return aircraft;
     }
 
     /**
      * Node containing the label and icon of the aircraft
      *
-     * @param oas (ObservableAircraftState) : aircraft state
+     * @param state (ObservableValue<ObservableAircraftState>) : aircraft state, or null if there is none
      * @return node containing the label and icon of the aircraft
      */
-    private Node labelAndIcon(ObservableAircraftState oas) {
-        Group labelAndIcon = new Group(label(oas), icon(oas));
+    private Node labelAndIcon(ObservableValue<ObservableAircraftState> state) {
+        Group labelAndIcon = new Group(label(state), icon(state));
 
-        ReadOnlyObjectProperty<GeoPos> posProp = oas.positionProperty();
+        ObservableValue<GeoPos> posProp = state.flatMap(ObservableAircraftState::positionProperty);
         ReadOnlyIntegerProperty zoomProp = mapParams.zoomProperty();
 
-        labelAndIcon.layoutXProperty().bind(Bindings.createDoubleBinding(() ->
-                        WebMercator.x(mapParams.getZoom(), oas.getPosition().longitude()) - mapParams.getMinX(),
-                mapParams.minXProperty(), posProp, zoomProp
+        labelAndIcon.layoutXProperty().bind(Bindings.createDoubleBinding(() -> {
+                    GeoPos pos = posProp.getValue();
+                    if (pos == null) return 0d;
+                    return WebMercator.x(mapParams.getZoom(), pos.longitude()) - mapParams.getMinX();
+                }, mapParams.minXProperty(), posProp, zoomProp
         ));
 
-        labelAndIcon.layoutYProperty().bind(Bindings.createDoubleBinding(() ->
-                        WebMercator.y(mapParams.getZoom(), oas.getPosition().latitude()) - mapParams.getMinY(),
-                mapParams.minYProperty(), posProp, zoomProp
+        labelAndIcon.layoutYProperty().bind(Bindings.createDoubleBinding(() -> {
+                    GeoPos pos = posProp.getValue();
+                    if (pos == null) return 0d;
+                    return WebMercator.y(mapParams.getZoom(), pos.latitude()) - mapParams.getMinY();
+                }, mapParams.minYProperty(), posProp, zoomProp
         ));
 
         return labelAndIcon;
@@ -197,46 +274,49 @@ public final class AircraftController {
     /**
      * Node containing the icon of the aircraft
      *
-     * @param oas (ObservableAircraftState) : aircraft state
+     * @param state (ObservableValue<ObservableAircraftState>) : aircraft state, or null if there is none
      * @return node containing the icon of the aircraft
      */
-    private Node icon(ObservableAircraftState oas) {
+    private Node icon(ObservableValue<ObservableAircraftState> state) {
         SVGPath svg = new SVGPath();
         svg.getStyleClass().add(ICON_STYLE_CLASS);
 
-        AircraftData data = oas.getAircraftData();
-
-        ObservableValue<AircraftIcon> iconProperty = Bindings.createObjectBinding(() ->
-                        (data == null) ?
-                                AircraftIcon.iconFor(
-                                        new AircraftTypeDesignator(EMPTY),
-                                        new AircraftDescription(EMPTY),
-                                        oas.getCategory(),
-                                        WakeTurbulenceCategory.UNKNOWN) :
-                                AircraftIcon.iconFor(
-                                        data.typeDesignator(),
-                                        data.description(),
-                                        oas.getCategory(),
-                                        data.wakeTurbulenceCategory())
-                , oas.categoryProperty()
+        ObservableValue<AircraftIcon> iconProperty = Bindings.createObjectBinding(() -> {
+                    ObservableAircraftState oas = state.getValue();
+                    if (oas == null) return AircraftIcon.UNKNOWN;
+                    AircraftData data = oas.getAircraftData();
+                    return (data == null) ?
+                            AircraftIcon.iconFor(
+                                    new AircraftTypeDesignator(EMPTY),
+                                    new AircraftDescription(EMPTY),
+                                    oas.getCategory(),
+                                    WakeTurbulenceCategory.UNKNOWN) :
+                            AircraftIcon.iconFor(
+                                    data.typeDesignator(),
+                                    data.description(),
+                                    oas.getCategory(),
+                                    data.wakeTurbulenceCategory());
+                }, state, state.flatMap(ObservableAircraftState::categoryProperty)
         );
 
         svg.contentProperty().bind(Bindings.createStringBinding(() ->
                 iconProperty.getValue().svgPath(), iconProperty)
         );
 
+        ObservableValue<Number> trackOrHeading = state.flatMap(ObservableAircraftState::trackOrHeadingProperty);
         svg.rotateProperty().bind(Bindings.createDoubleBinding(() ->
-                        iconProperty.getValue().canRotate() ?
-                                Units.convertTo(oas.getTrackOrHeading(), Units.Angle.DEGREE) :
+                        iconProperty.getValue().canRotate() && trackOrHeading.getValue() != null ?
+                                Units.convertTo(trackOrHeading.getValue().doubleValue(), Units.Angle.DEGREE) :
                                 0
-                , oas.trackOrHeadingProperty(), iconProperty)
+                , trackOrHeading, iconProperty)
         );
 
+        ObservableValue<Number> altitude = state.flatMap(ObservableAircraftState::altitudeProperty);
         svg.fillProperty().bind(Bindings.createObjectBinding(() ->
-                getColor(oas.getAltitude()), oas.altitudeProperty())
+                getColor(altitude.getValue() != null ? altitude.getValue().doubleValue() : 0), altitude)
         );
 
-        svg.setOnMouseClicked(e -> selectedAircraftState.set(oas));
+        svg.setOnMouseClicked(e -> selectedAircraftState.set(state.getValue()));
 
         return svg;
     }
@@ -244,30 +324,21 @@ public final class AircraftController {
     /**
      * Node containing the label of the aircraft
      *
-     * @param oas (ObservableAircraftState) : aircraft state
+     * @param state (ObservableValue<ObservableAircraftState>) : aircraft state, or null if there is none
      * @return node containing the label of the aircraft
      */
-    private Node label(ObservableAircraftState oas) {
+    private Node label(ObservableValue<ObservableAircraftState> state) {
         Text t = new Text();
 
-        AircraftData data = oas.getAircraftData();
         t.textProperty().bind(Bindings.createStringBinding(() -> {
-                    AircraftRegistration ar = (data != null) ? data.registration() : null;
-                    CallSign cs = oas.getCallSign();
-                    IcaoAddress icao = oas.getIcaoAddress();
-                    String line1 = (ar != null) ? ar.string() : (cs != null) ? cs.string() : icao.string();
-
-                    double vel = oas.getVelocity(), alt = oas.getAltitude();
-                    String velocity = (!Double.isInfinite(vel)) ?
-                            String.valueOf((int) Math.rint(Units.convertTo(vel, Units.Speed.KILOMETER_PER_HOUR))) :
-                            INVALID_CHARACTER;
-
-                    String altitude = (!Double.isInfinite(alt)) ?
-                            String.valueOf((int) Math.rint(alt)) :
-                            INVALID_CHARACTER;
-
-                    return String.format("%s\n%s km/h\u2002%s m", line1, velocity, altitude);
-                }, oas.velocityProperty(), oas.altitudeProperty(), oas.callSignProperty())
+                    ObservableAircraftState oas = state.getValue();
+                    if (oas == null) return EMPTY;
+                    return labelText(oas.getAircraftData(), oas.getCallSign(), oas.getIcaoAddress(),
+                            oas.getVelocity(), oas.getAltitude());
+                }, state,
+                state.flatMap(ObservableAircraftState::velocityProperty),
+                state.flatMap(ObservableAircraftState::altitudeProperty),
+                state.flatMap(ObservableAircraftState::callSignProperty))
         );
 
         Rectangle r = new Rectangle();
@@ -279,13 +350,40 @@ public final class AircraftController {
 
         label.visibleProperty().bind(Bindings.createBooleanBinding(() -> {
                     ObservableAircraftState selected = selectedAircraftState.get();
-                    return (mapParams.getZoom() >= MIN_ZOOM_FOR_LABEL) || (selected != null && selected.equals(oas));
-                }, mapParams.zoomProperty(), selectedAircraftState
+                    return (mapParams.getZoom() >= MIN_ZOOM_FOR_LABEL)
+                            || (selected != null && selected.equals(state.getValue()));
+                }, mapParams.zoomProperty(), selectedAircraftState, state
         ));
 
         return label;
     }
 
+
+    /**
+     * Returns the text of the label of an aircraft, shared by all the ways of drawing the aircraft
+     *
+     * @param data     (AircraftData) : fixed data of the aircraft, or null if it is unknown
+     * @param callSign (CallSign) : call sign of the aircraft, or null if it is unknown
+     * @param icao     (IcaoAddress) : ICAO address of the aircraft
+     * @param velocity (double) : velocity of the aircraft, in meters per second, or infinity if it is unknown
+     * @param altitude (double) : altitude of the aircraft, in meters, or infinity if it is unknown
+     * @return text of the label, on two lines
+     */
+    static String labelText(AircraftData data, CallSign callSign, IcaoAddress icao, double velocity,
+                            double altitude) {
+        AircraftRegistration ar = (data != null) ? data.registration() : null;
+        String line1 = (ar != null) ? ar.string() : (callSign != null) ? callSign.string() : icao.string();
+
+        String vel = (!Double.isInfinite(velocity)) ?
+                String.valueOf((int) Math.rint(Units.convertTo(velocity, Units.Speed.KILOMETER_PER_HOUR))) :
+                INVALID_CHARACTER;
+
+        String alt = (!Double.isInfinite(altitude)) ?
+                String.valueOf((int) Math.rint(altitude)) :
+                INVALID_CHARACTER;
+
+        return String.format("%s\n%s km/h\u2002%s m", line1, vel, alt);
+    }
     /**
      * Method to get the color of an aircraft icon and its trajectory given the altitude
      *
@@ -293,9 +391,16 @@ public final class AircraftController {
      * @return he color of an aircraft icon and its trajectory given the altitude
      */
     private Color getColor(double altitude) {
-        double c = Math.pow(altitude / APPROXIMATE_MAX_ALTITUDE, 1d / 3d);
-        return ColorRamp.PLASMA.at(c);
+        return ColorRamp.PLASMA.atAltitude(altitude);
     }
 
+    /**
+     * Node of an aircraft, which can be given to another aircraft once its aircraft left the visible portion of the
+     * map, its bindings following the aircraft it is given to
+     */
+    private final class AircraftView {
+        private final ObjectProperty<ObservableAircraftState> state = new SimpleObjectProperty<>();
+        private final Node node = aircraft(state);
+    }
 
 }
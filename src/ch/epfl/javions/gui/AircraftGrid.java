@@ -0,0 +1,132 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.WebMercator;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid over the map, in which every aircraft is in the cell containing its position, so that the aircraft
+ * near a portion of the map can be found without looking at all of them.
+ * <p>
+ * The cells are the tiles of a fixed zoom level, and only the cells containing aircraft are stored. Must only be used
+ * from the JavaFX thread, like the aircraft states.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class AircraftGrid {
+    private static final int CELL_ZOOM = 8;
+    private static final int CELL_SIZE = TileManager.TileId.TILE_SIZE;
+    private static final int CELLS_PER_SIDE = 1 << CELL_ZOOM;
+    private final Map<Integer, Set<ObservableAircraftState>> cells;
+    private final Map<ObservableAircraftState, Integer> cellOfAircraft;
+
+    /**
+     * Creates an empty grid
+     */
+    public AircraftGrid() {
+        this.cells = new HashMap<>();
+        this.cellOfAircraft = new HashMap<>();
+    }
+
+    /**
+     * Puts the given aircraft in the cell containing the given position, removing it from its previous cell if needed
+     *
+     * @param aircraft (ObservableAircraftState) : aircraft state
+     * @param position (GeoPos) : position of the aircraft
+     */
+    public void put(ObservableAircraftState aircraft, GeoPos position) {
+        int cell = cellIndex(cellCoordinate(WebMercator.x(CELL_ZOOM, position.longitude())),
+                cellCoordinate(WebMercator.y(CELL_ZOOM, position.latitude())));
+        Integer previousCell = cellOfAircraft.put(aircraft, cell);
+        if (previousCell != null && previousCell == cell) return;
+
+        if (previousCell != null) removeFromCell(aircraft, previousCell);
+        cells.computeIfAbsent(cell, c -> new HashSet<>()).add(aircraft);
+    }
+
+    /**
+     * Removes the given aircraft from the grid, if it is in it
+     *
+     * @param aircraft (ObservableAircraftState) : aircraft state
+     */
+    public void remove(ObservableAircraftState aircraft) {
+        Integer cell = cellOfAircraft.remove(aircraft);
+        if (cell != null) removeFromCell(aircraft, cell);
+    }
+
+    /**
+     * Gives the aircraft of the cells intersecting the given rectangle of the map to the given action. As the cells
+     * are larger than a few pixels, some of these aircraft can be outside of the rectangle.
+     *
+     * @param zoom   (int) : zoom level of the coordinates of the rectangle
+     * @param minX   (double) : x coordinate of the left side of the rectangle
+     * @param minY   (double) : y coordinate of the top side of the rectangle
+     * @param maxX   (double) : x coordinate of the right side of the rectangle
+     * @param maxY   (double) : y coordinate of the bottom side of the rectangle
+     * @param action (Consumer<ObservableAircraftState>) : action given the aircraft
+     */
+    public void forEachNear(int zoom, double minX, double minY, double maxX, double maxY,
+                            Consumer<ObservableAircraftState> action) {
+        if (cells.isEmpty()) return;
+        double scale = Math.scalb(1d, CELL_ZOOM - zoom);
+        int minCellX = cellCoordinate(minX * scale), maxCellX = cellCoordinate(maxX * scale);
+        int minCellY = cellCoordinate(minY * scale), maxCellY = cellCoordinate(maxY * scale);
+
+        // when zoomed out, there can be more cells in the rectangle than cells containing aircraft
+        if ((long) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > cells.size()) {
+            for (Map.Entry<Integer, Set<ObservableAircraftState>> entry : cells.entrySet()) {
+                int cellX = entry.getKey() / CELLS_PER_SIDE, cellY = entry.getKey() % CELLS_PER_SIDE;
+                if (minCellX <= cellX && cellX <= maxCellX && minCellY <= cellY && cellY <= maxCellY) {
+                    entry.getValue().forEach(action);
+                }
+            }
+            return;
+        }
+        for (int cellX = minCellX; cellX <= maxCellX; ++cellX) {
+            for (int cellY = minCellY; cellY <= maxCellY; ++cellY) {
+                Set<ObservableAircraftState> cell = cells.get(cellIndex(cellX, cellY));
+                if (cell != null) cell.forEach(action);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of aircraft in the grid
+     *
+     * @return number of aircraft
+     */
+    public int size() {
+        return cellOfAircraft.size();
+    }
+
+    /**
+     * Removes the given aircraft from the given cell, and the cell if it becomes empty
+     */
+    private void removeFromCell(ObservableAircraftState aircraft, int cell) {
+        Set<ObservableAircraftState> previous = cells.get(cell);
+        previous.remove(aircraft);
+        if (previous.isEmpty()) cells.remove(cell);
+    }
+
+    /**
+     * Returns the coordinate of the cell containing the given coordinate at the zoom level of the cells, clamped to
+     * the map
+     */
+    private static int cellCoordinate(double coordinate) {
+        return (int) Math.max(0, Math.min(CELLS_PER_SIDE - 1, Math.floor(coordinate / CELL_SIZE)));
+    }
+
+    /**
+     * Returns the index of the cell at the given coordinates
+     */
+    private static int cellIndex(int cellX, int cellY) {
+        return cellX * CELLS_PER_SIDE + cellY;
+    }
+
+}
@@ -0,0 +1,160 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.adsb.AircraftStateSetter;
+import ch.epfl.javions.adsb.CallSign;
+import ch.epfl.javions.adsb.MutableAircraftState;
+import ch.epfl.javions.aircraft.IcaoAddress;
+import ch.epfl.javions.gui.ObservableAircraftState.AirbornePos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the changes of the state of an aircraft between two frames, without touching any JavaFX property. The
+ * state itself is kept as plain fields, and the trajectory points added since the last publication are kept in a
+ * list, so that they can all be published at once to the observable state of the aircraft.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class AircraftStateBuffer implements AircraftStateSetter {
+    private final MutableAircraftState state;
+    private final List<AirbornePos> newTrajectoryPoints;
+    private AirbornePos lastTrajectoryPoint;
+    private AirbornePos replacedLastPublishedPoint;
+    private boolean dirty;
+
+    /**
+     * Creates the buffer of an aircraft whose state is still unknown
+     *
+     * @param icaoAddress (IcaoAddress) : ICAO address of the aircraft
+     * @throws NullPointerException if the ICAO address is null
+     */
+    public AircraftStateBuffer(IcaoAddress icaoAddress) {
+        this.state = new MutableAircraftState(icaoAddress);
+        this.newTrajectoryPoints = new ArrayList<>();
+    }
+
+    /**
+     * Returns the current state of the aircraft, including the changes not yet published
+     *
+     * @return current state of the aircraft
+     */
+    public MutableAircraftState state() {
+        return state;
+    }
+
+    /**
+     * Returns true if the state changed since the last publication
+     *
+     * @return true if the state changed since the last publication
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Returns the trajectory points added since the last publication
+     *
+     * @return trajectory points added since the last publication, in order
+     */
+    public List<AirbornePos> newTrajectoryPoints() {
+        return newTrajectoryPoints;
+    }
+
+    /**
+     * Returns the point that must replace the last point of the published trajectory, if any
+     *
+     * @return new value of the last published point, or null if it did not change
+     */
+    public AirbornePos replacedLastPublishedPoint() {
+        return replacedLastPublishedPoint;
+    }
+
+    /**
+     * Forgets the changes, once they have been published
+     */
+    public void clearChanges() {
+        newTrajectoryPoints.clear();
+        replacedLastPublishedPoint = null;
+        dirty = false;
+    }
+
+    @Override
+    public void setLastMessageTimeStampNs(long timeStampNs) {
+        state.setLastMessageTimeStampNs(timeStampNs);
+        dirty = true;
+    }
+
+    @Override
+    public void setCategory(int category) {
+        state.setCategory(category);
+        dirty = true;
+    }
+
+    @Override
+    public void setCallSign(CallSign callSign) {
+        state.setCallSign(callSign);
+        dirty = true;
+    }
+
+    /**
+     * Sets the position of the aircraft, and adds it to the trajectory if the altitude is known (as
+     * ObservableAircraftState does)
+     *
+     * @param position (GeoPos) : new aircraft position
+     */
+    @Override
+    public void setPosition(GeoPos position) {
+        state.setPosition(position);
+        dirty = true;
+        if (!Double.isInfinite(state.getAltitude())) {
+            addTrajectoryPoint(new AirbornePos(position, state.getAltitude(), state.getLastMessageTimeStampNs()));
+        }
+    }
+
+    /**
+     * Sets the altitude of the aircraft, and updates the last point of the trajectory if it has the timestamp of the
+     * last message (as ObservableAircraftState does)
+     *
+     * @param altitude (double) : new aircraft altitude
+     */
+    @Override
+    public void setAltitude(double altitude) {
+        state.setAltitude(altitude);
+        dirty = true;
+        GeoPos pos = state.getPosition();
+        if (pos == null) return;
+
+        AirbornePos currentPosition = new AirbornePos(pos, altitude, state.getLastMessageTimeStampNs());
+        if (lastTrajectoryPoint == null) {
+            addTrajectoryPoint(currentPosition);
+        } else if (state.getLastMessageTimeStampNs() == lastTrajectoryPoint.timeStampNs()) {
+            if (newTrajectoryPoints.isEmpty()) replacedLastPublishedPoint = currentPosition;
+            else newTrajectoryPoints.set(newTrajectoryPoints.size() - 1, currentPosition);
+            lastTrajectoryPoint = currentPosition;
+        }
+    }
+
+    @Override
+    public void setVelocity(double velocity) {
+        state.setVelocity(velocity);
+        dirty = true;
+    }
+
+    @Override
+    public void setTrackOrHeading(double trackOrHeading) {
+        state.setTrackOrHeading(trackOrHeading);
+        dirty = true;
+    }
+
+    /**
+     * Adds a point at the end of the trajectory
+     */
+    private void addTrajectoryPoint(AirbornePos point) {
+        newTrajectoryPoints.add(point);
+        lastTrajectoryPoint = point;
+    }
+
+}
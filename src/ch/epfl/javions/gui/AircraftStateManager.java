@@ -1,41 +1,40 @@
 package ch.epfl.javions.gui;
 
-import ch.epfl.javions.adsb.AircraftStateAccumulator;
-import ch.epfl.javions.adsb.Message;
-import ch.epfl.javions.aircraft.AircraftDatabase;
+import ch.epfl.javions.adsb.AircraftSnapshot;
 import ch.epfl.javions.aircraft.IcaoAddress;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableSet;
 
-import java.io.IOException;
 import java.util.*;
 
 /**
- * Aims to keep the states of a set of aircraft up-to-date according to the messages received from them
+ * Aims to keep the states of a set of aircraft up-to-date according to the messages received from them.
+ * <p>
+ * The messages are accumulated by the shards, and the observable states are only updated once per frame by
+ * publishUpdates, with at most one update per aircraft and per publication of its shard, so that the number of
+ * property changes depends on the number of aircraft and not on the number of messages.
  *
  * @author Leon Petrinos (357588)
  * @author Andrea Trugenberger (357615)
  */
 public final class AircraftStateManager {
-    private final Map<IcaoAddress, AircraftStateAccumulator<ObservableAircraftState>> icaoToAccumulatorMap;
+    private final AircraftStateShards shards;
+    private final Map<IcaoAddress, ObservableAircraftState> icaoToObservableStateMap;
     private final ObservableSet<ObservableAircraftState> aircraftStates;
     private final ObservableSet<ObservableAircraftState> unmodifiableAircraftStates;
-    private final AircraftDatabase database;
-    private Message m;
     private static final long MINUTE_NS = (long) 60e9;
 
     /**
      * Creates an AircraftStateManager and initializes an observable set of aicraft states as well as a map that maps
-     * an icao address to an aircraft state accumulator
+     * an icao address to an observable aircraft state
      *
-     * @param database (AircraftDatabase) : aircraft database
-     *                 (i.e. we can get all the data of an aircraft given an icao address)
+     * @param shards (AircraftStateShards) : shards accumulating the messages received from the aircraft
      */
-    public AircraftStateManager(AircraftDatabase database) {
-        this.database = database;
+    public AircraftStateManager(AircraftStateShards shards) {
+        this.shards = shards;
         this.aircraftStates = FXCollections.observableSet();
         this.unmodifiableAircraftStates = FXCollections.unmodifiableObservableSet(aircraftStates);
-        this.icaoToAccumulatorMap = new HashMap<>();
+        this.icaoToObservableStateMap = new HashMap<>();
     }
 
     /**
@@ -48,43 +47,41 @@ public final class AircraftStateManager {
     }
 
     /**
-     * Updates the state of the aircraft that sent the message
+     * Publishes the updates sent by the shards since the last call to the observable states, and adds to the set of
+     * observable states the aircraft whose position became known. Meant to be called once per frame.
      *
-     * @param m (Message) : message received from an aircraft
-     * @throws IOException if an input/output error occurs
+     * @return number of updates published
      */
-    public void updateWithMessage(Message m) throws IOException {
-        this.m = m;
-        IcaoAddress icao = m.icaoAddress();
-        AircraftStateAccumulator<ObservableAircraftState> asa = icaoToAccumulatorMap.get(icao);
-
-        if (asa == null) {
-            ObservableAircraftState oas = new ObservableAircraftState(icao, database.get(icao));
-            asa = new AircraftStateAccumulator<>(oas);
-            icaoToAccumulatorMap.put(icao, asa);
-        }
-
-        asa.update(m);
-
-        if (icaoToAccumulatorMap.get(icao).stateSetter().getPosition() != null) {
-            aircraftStates.add(asa.stateSetter());
-        }
-
+    public int publishUpdates() {
+        return shards.drainUpdates(this::publish);
     }
 
     /**
      * Deletes from the set of observable states all those corresponding to aircraft from which no message has been
-     * received in the minute preceding the reception of the last message passed to updateWithMessage as well as the
-     * corresponding aircraft state setter
+     * received in the minute preceding the reception of the last message sent to the shards
      */
     public void purge() {
+        long lastTimeStampNs = shards.lastMessageTimeStampNs();
         Iterator<ObservableAircraftState> it = aircraftStates.iterator();
         while (it.hasNext()) {
             ObservableAircraftState oas = it.next();
-            if (m.timeStampNs() - oas.getLastMessageTimeStampNs() > MINUTE_NS) {
+            if (lastTimeStampNs - oas.getLastMessageTimeStampNs() > MINUTE_NS) {
                 it.remove();
-                icaoToAccumulatorMap.remove(oas.getIcaoAddress());
+                icaoToObservableStateMap.remove(oas.getIcaoAddress());
             }
         }
     }
+
+    /**
+     * Publishes an update to the observable state of its aircraft, which is created if needed
+     */
+    private void publish(AircraftStateUpdate update) {
+        AircraftSnapshot snapshot = update.snapshot();
+        ObservableAircraftState oas = icaoToObservableStateMap.computeIfAbsent(snapshot.icaoAddress(),
+                icao -> new ObservableAircraftState(icao, snapshot.aircraftData()));
+        oas.publish(update);
+        if (oas.getPosition() != null) {
+            aircraftStates.add(oas);
+        }
+    }
 }
@@ -0,0 +1,278 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.adsb.AircraftSnapshot;
+import ch.epfl.javions.adsb.AircraftStateAccumulator;
+import ch.epfl.javions.adsb.AircraftWorld;
+import ch.epfl.javions.adsb.Message;
+import ch.epfl.javions.adsb.RawMessage;
+import ch.epfl.javions.adsb.RawMessageRingBuffer;
+import ch.epfl.javions.adsb.RawMessageRingBuffer.OverflowPolicy;
+import ch.epfl.javions.aircraft.AircraftData;
+import ch.epfl.javions.aircraft.AircraftDatabase;
+import ch.epfl.javions.aircraft.IcaoAddress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Accumulates the states of the aircraft on several worker threads, called shards, instead of the JavaFX thread.
+ * <p>
+ * Every aircraft belongs to the shard given by the hash of its ICAO address, so that each shard owns the accumulators
+ * (and the database lookups) of its aircraft without any lock. The messages are sent to the shards by a single
+ * producer thread through one ring buffer per shard. At most every publication interval, each shard publishes the
+ * snapshots of the aircraft whose state changed in a shared AircraftWorld, readable from any thread, and sends the
+ * corresponding updates (with their new trajectory points) to the JavaFX thread.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class AircraftStateShards implements Closeable {
+    /**
+     * Default number of shards, half of the available processors
+     */
+    public static final int DEFAULT_SHARD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int BUFFER_CAPACITY = 1 << 14;
+    private static final long PUBLICATION_INTERVAL_NS = 50_000_000L;
+    private static final long IDLE_PARK_NS = 1_000_000L;
+    private static final long MINUTE_NS = (long) 60e9;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int ICAO_SHIFT = 3 * Byte.SIZE;
+    private static final int ICAO_MASK = (1 << ICAO_SHIFT) - 1;
+    private final Shard[] shards;
+    private final Thread[] threads;
+    private final ConcurrentLinkedQueue<List<AircraftStateUpdate>> updates;
+    private final AircraftWorld world;
+    private volatile long lastMessageTimeStampNs;
+    private volatile boolean running;
+    private volatile IOException failure;
+
+    /**
+     * Creates the shards and starts their threads
+     *
+     * @param database       (AircraftDatabase) : database of the fixed characteristics of the aircraft
+     * @param shardCount     (int) : number of shards
+     * @param overflowPolicy (OverflowPolicy) : policy applied when the buffer of a shard is full
+     * @throws IllegalArgumentException if the number of shards is not strictly positive
+     */
+    public AircraftStateShards(AircraftDatabase database, int shardCount, OverflowPolicy overflowPolicy) {
+        Preconditions.checkArgument(shardCount > 0);
+        this.updates = new ConcurrentLinkedQueue<>();
+        this.world = new AircraftWorld();
+        this.shards = new Shard[shardCount];
+        this.threads = new Thread[shardCount];
+        this.running = true;
+        for (int i = 0; i < shardCount; ++i) {
+            shards[i] = new Shard(database, new RawMessageRingBuffer(BUFFER_CAPACITY, overflowPolicy));
+            threads[i] = new Thread(shards[i], "aircraft-shard-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Sends a message to the shard of the aircraft that sent it. Must only be called by a single producer thread.
+     *
+     * @param rawMessage (RawMessage) : valid message
+     * @return true if the message was added to the buffer of the shard, false if it was dropped
+     */
+    public boolean offer(RawMessage rawMessage) {
+        if (failure != null) return false;
+        lastMessageTimeStampNs = rawMessage.timeStampNs();
+        long firstHalf = rawMessage.firstHalf();
+        int icao = (int) (firstHalf >>> ICAO_SHIFT) & ICAO_MASK;
+        int shard = (int) (((icao * HASH_MULTIPLIER) >>> Integer.SIZE) % shards.length);
+        return shards[shard].messageBuffer.offer(rawMessage.timeStampNs(), firstHalf, rawMessage.secondHalf());
+    }
+
+    /**
+     * Passes the updates sent by the shards since the last call to the given consumer, in the order in which each
+     * shard sent them. Must only be called by a single consumer thread.
+     *
+     * @param consumer (Consumer<AircraftStateUpdate>) : consumer of the updates
+     * @return number of updates passed to the consumer
+     * @throws UncheckedIOException if a shard stopped because of an input/output error
+     */
+    public int drainUpdates(Consumer<AircraftStateUpdate> consumer) {
+        if (failure != null) throw new UncheckedIOException(failure);
+        int count = 0;
+        for (List<AircraftStateUpdate> batch; (batch = updates.poll()) != null; ) {
+            batch.forEach(consumer);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the world in which the shards publish the snapshots of the aircraft
+     *
+     * @return world of the aircraft
+     */
+    public AircraftWorld world() {
+        return world;
+    }
+
+    /**
+     * Returns the timestamp of the last message sent to the shards
+     *
+     * @return timestamp of the last message, in nanoseconds
+     */
+    public long lastMessageTimeStampNs() {
+        return lastMessageTimeStampNs;
+    }
+
+    /**
+     * Returns the number of valid messages processed by the shards, as of their last publication
+     *
+     * @return number of valid messages processed
+     */
+    public long messageCount() {
+        long count = 0;
+        for (Shard shard : shards) count += shard.publishedMessageCount;
+        return count;
+    }
+
+    /**
+     * Returns the number of messages added while the buffer of their shard was full
+     *
+     * @return number of messages added while the buffer of their shard was full
+     */
+    public long overflowCount() {
+        long count = 0;
+        for (Shard shard : shards) count += shard.messageBuffer.overflowCount();
+        return count;
+    }
+
+    /**
+     * Stops the shards and waits for their threads to terminate
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Worker owning the accumulators of the aircraft whose ICAO address hashes to it
+     */
+    private final class Shard implements Runnable, MessageDrainer.MessageSink {
+        private final AircraftDatabase database;
+        private final RawMessageRingBuffer messageBuffer;
+        private final MessageDrainer drainer;
+        private final Map<IcaoAddress, AircraftStateAccumulator<AircraftStateBuffer>> icaoToAccumulatorMap;
+        private final Map<IcaoAddress, AircraftData> icaoToDataMap;
+        private final List<IcaoAddress> dirtyAircraft;
+        private final List<IcaoAddress> purgedAircraft;
+        private long lastPublicationTimeNs;
+        private long lastPurgeTimeNs;
+        private volatile long publishedMessageCount;
+
+        private Shard(AircraftDatabase database, RawMessageRingBuffer messageBuffer) {
+            this.database = database;
+            this.messageBuffer = messageBuffer;
+            this.drainer = new MessageDrainer(messageBuffer, this, MessageDrainer.DEFAULT_BUDGET_NS);
+            this.icaoToAccumulatorMap = new HashMap<>();
+            this.icaoToDataMap = new HashMap<>();
+            this.dirtyAircraft = new ArrayList<>();
+            this.purgedAircraft = new ArrayList<>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    int drained = drainer.drain();
+                    long now = System.nanoTime();
+                    if (now - lastPublicationTimeNs >= PUBLICATION_INTERVAL_NS) {
+                        publish();
+                        lastPublicationTimeNs = now;
+                    }
+                    if (now - lastPurgeTimeNs >= MINUTE_NS) {
+                        purge();
+                        lastPurgeTimeNs = now;
+                    }
+                    if (drained == 0) LockSupport.parkNanos(IDLE_PARK_NS);
+                }
+            } catch (IOException e) {
+                failure = e;
+                // keeps emptying the buffer, so that a producer waiting for room is never blocked forever
+                while (running) {
+                    if (messageBuffer.drain((timeStampNs, firstHalf, secondHalf) -> {}, BUFFER_CAPACITY) == 0)
+                        LockSupport.parkNanos(IDLE_PARK_NS);
+                }
+            }
+        }
+
+        /**
+         * Updates the buffered state of the aircraft that sent the message, looking up its characteristics in the
+         * database the first time it is seen
+         */
+        @Override
+        public void accept(Message m) throws IOException {
+            IcaoAddress icao = m.icaoAddress();
+            AircraftStateAccumulator<AircraftStateBuffer> asa = icaoToAccumulatorMap.get(icao);
+
+            if (asa == null) {
+                icaoToDataMap.put(icao, database.get(icao));
+                asa = new AircraftStateAccumulator<>(new AircraftStateBuffer(icao));
+                icaoToAccumulatorMap.put(icao, asa);
+            }
+
+            if (!asa.stateSetter().isDirty()) dirtyAircraft.add(icao);
+            asa.update(m);
+        }
+
+        /**
+         * Publishes the snapshot of every aircraft whose state changed since the last publication, removes the purged
+         * aircraft from the world, and sends the corresponding updates
+         */
+        private void publish() {
+            publishedMessageCount = drainer.messageCount();
+            if (dirtyAircraft.isEmpty() && purgedAircraft.isEmpty()) return;
+
+            List<AircraftSnapshot> snapshots = new ArrayList<>(dirtyAircraft.size());
+            List<AircraftStateUpdate> batch = new ArrayList<>(dirtyAircraft.size());
+            for (IcaoAddress icao : dirtyAircraft) {
+                AircraftStateBuffer buffer = icaoToAccumulatorMap.get(icao).stateSetter();
+                AircraftSnapshot snapshot = AircraftSnapshot.of(icaoToDataMap.get(icao), buffer.state());
+                snapshots.add(snapshot);
+                batch.add(AircraftStateUpdate.of(snapshot, buffer));
+                buffer.clearChanges();
+            }
+            world.publish(snapshots, purgedAircraft);
+            dirtyAircraft.clear();
+            purgedAircraft.clear();
+            if (!batch.isEmpty()) updates.add(batch);
+        }
+
+        /**
+         * Forgets the aircraft from which no message has been received in the minute preceding the last message
+         */
+        private void purge() {
+            long lastTimeStampNs = lastMessageTimeStampNs;
+            Iterator<AircraftStateAccumulator<AircraftStateBuffer>> it = icaoToAccumulatorMap.values().iterator();
+            while (it.hasNext()) {
+                AircraftStateBuffer buffer = it.next().stateSetter();
+                if (!buffer.isDirty() && lastTimeStampNs - buffer.state().getLastMessageTimeStampNs() > MINUTE_NS) {
+                    it.remove();
+                    icaoToDataMap.remove(buffer.state().getIcaoAddress());
+                    purgedAircraft.add(buffer.state().getIcaoAddress());
+                }
+            }
+        }
+    }
+
+}
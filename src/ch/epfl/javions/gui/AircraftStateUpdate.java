@@ -0,0 +1,44 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.adsb.AircraftSnapshot;
+import ch.epfl.javions.gui.ObservableAircraftState.AirbornePos;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable change of the state of an aircraft, sent by the thread that accumulates its messages to the JavaFX
+ * thread. It contains the new snapshot of the aircraft and the trajectory points added since the previous update.
+ *
+ * @param snapshot            (AircraftSnapshot) : new state of the aircraft
+ * @param newTrajectoryPoints (List<AirbornePos>) : trajectory points added since the previous update
+ * @param replacedLastPoint   (AirbornePos) : new value of the last point of the trajectory of the previous update, or
+ *                            null if it did not change
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public record AircraftStateUpdate(AircraftSnapshot snapshot, List<AirbornePos> newTrajectoryPoints,
+                                  AirbornePos replacedLastPoint) {
+
+    /**
+     * Compact constructor of AircraftStateUpdate, which copies the list of trajectory points
+     *
+     * @throws NullPointerException if the snapshot or the list of trajectory points is null
+     */
+    public AircraftStateUpdate {
+        Objects.requireNonNull(snapshot);
+        newTrajectoryPoints = List.copyOf(newTrajectoryPoints);
+    }
+
+    /**
+     * Creates the update of an aircraft from its new snapshot and the changes held by its buffer
+     *
+     * @param snapshot (AircraftSnapshot) : new state of the aircraft
+     * @param buffer   (AircraftStateBuffer) : buffer containing the changes since the previous update
+     * @return the update of the aircraft
+     */
+    public static AircraftStateUpdate of(AircraftSnapshot snapshot, AircraftStateBuffer buffer) {
+        return new AircraftStateUpdate(snapshot, buffer.newTrajectoryPoints(), buffer.replacedLastPublishedPoint());
+    }
+
+}
@@ -4,16 +4,35 @@ import ch.epfl.javions.GeoPos;
 import ch.epfl.javions.WebMercator;
 import javafx.beans.property.*;
 import javafx.geometry.Point2D;
+import javafx.geometry.Rectangle2D;
 import javafx.application.Platform;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
 import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
 
-import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Manages the display and interaction with the base map
+ * <p>
+ * The tiles are never loaded on the JavaFX thread : a tile which is not in the memory cache is requested from the
+ * background loaders of the tile manager, and the map is drawn again when it arrives. In the meantime, the tile is
+ * replaced by the part of the closest ancestor tile that is in the memory cache, scaled up, or by a placeholder. The
+ * tiles that will probably be visible soon are prefetched after every redraw.
+ * <p>
+ * The map is drawn in an offscreen image slightly larger than the visible portion (the viewport), whose pixels are kept
+ * in an array. The image wraps around : every pixel of the map is always drawn at the same place of the image, modulo
+ * its size, and the image is shown by four image views, one for each part of the viewport on either side of the edges
+ * of the image. When the map is only moved, the pixels already drawn therefore stay in place, and only the newly
+ * visible strips are drawn, by copying the pixels of the tiles, and copied to the image. When a tile that was replaced
+ * arrives, only its part of the viewport is drawn again. The whole viewport is only drawn again when the zoom level or
+ * the size of the map changes.
  *
  * @author Leon Petrinos (357588)
  * @author Andrea Trugenberger (357615)
@@ -21,10 +40,26 @@ import java.io.IOException;
 public final class BaseMapController {
     private final TileManager tileManager;
     private final MapParameters mapParams;
-    private final Canvas canvas;
+    private final ImageView[] imageViews;
     private final Pane pane;
     private boolean redrawNeeded;
     private final ObjectProperty<Point2D> previousMousePos;
+    private final Set<TileManager.TileId> requestedTiles;
+    private final Set<TileManager.TileId> replacedTiles;
+    private final Set<TileManager.TileId> arrivedTiles;
+    private final TilePrefetcher prefetcher;
+    private Point2D mousePos;
+    private WritableImage viewport;
+    private int[] viewportPixels;
+    private int viewportWidth, viewportHeight;
+    private int drawnZoom, drawnOriginX, drawnOriginY;
+    // from the coordinates of the viewport to the ones of the image, in the part being drawn
+    private int wrapShiftX, wrapShiftY;
+    private int[] ancestorPixels;
+    private static final int TILE_SIZE = TileManager.TileId.TILE_SIZE;
+    private static final int MAX_ANCESTOR_DISTANCE = 6;
+    private static final int PLACEHOLDER_ARGB = argb(Color.gray(0.9));
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbPreInstance();
 
     /**
      * Installs all bindings, handlers and listeners that allow the map to be modified
@@ -35,11 +70,16 @@ public final class BaseMapController {
     public BaseMapController(TileManager tileManager, MapParameters mapParams) {
         this.tileManager = tileManager;
         this.mapParams = mapParams;
-        this.canvas = new Canvas();
-        this.pane = new Pane(canvas);
+        this.imageViews = new ImageView[4];
+        Arrays.setAll(imageViews, i -> new ImageView());
+        this.pane = new Pane(imageViews);
         this.previousMousePos = new SimpleObjectProperty<>();
+        this.requestedTiles = new HashSet<>();
+        this.replacedTiles = new HashSet<>();
+        this.arrivedTiles = new HashSet<>();
+        this.prefetcher = new TilePrefetcher(tileManager);
+        this.drawnZoom = -1;
 
-        installBindings();
         installHandlers();
         installListeners();
     }
@@ -60,30 +100,22 @@ public final class BaseMapController {
      */
     public void centerOn(GeoPos pos) {
         int zoom = mapParams.getZoom();
-        double xPos = WebMercator.x(zoom, pos.longitude()) - mapParams.getMinX() - (canvas.getWidth() / 2d);
-        double yPos = WebMercator.y(zoom, pos.latitude()) - mapParams.getMinY() - (canvas.getHeight() / 2d);
+        double xPos = WebMercator.x(zoom, pos.longitude()) - mapParams.getMinX() - (pane.getWidth() / 2d);
+        double yPos = WebMercator.y(zoom, pos.latitude()) - mapParams.getMinY() - (pane.getHeight() / 2d);
         mapParams.scroll(xPos, yPos);
     }
 
-    /**
-     * Binds the canvas width and height to the panes width and height
-     */
-    private void installBindings() {
-        canvas.widthProperty().bind(pane.widthProperty());
-        canvas.heightProperty().bind(pane.heightProperty());
-    }
-
     /**
      * Adds listeners to all properties that can change such that the map is changed when these modifications are made
      */
     private void installListeners() {
-        canvas.sceneProperty().addListener((p, oldS, newS) -> {
+        pane.sceneProperty().addListener((p, oldS, newS) -> {
             assert oldS == null;
             newS.addPreLayoutPulseListener(this::redrawIfNeeded);
         });
 
-        canvas.widthProperty().addListener(o -> redrawOnNextPulse());
-        canvas.heightProperty().addListener(o -> redrawOnNextPulse());
+        pane.widthProperty().addListener(o -> redrawOnNextPulse());
+        pane.heightProperty().addListener(o -> redrawOnNextPulse());
         mapParams.minXProperty().addListener(o -> redrawOnNextPulse());
         mapParams.minYProperty().addListener(o -> redrawOnNextPulse());
         mapParams.zoomProperty().addListener(o -> redrawOnNextPulse());
@@ -105,6 +137,9 @@ public final class BaseMapController {
 
         pane.setOnMouseReleased(e -> previousMousePos.set(null));
 
+        pane.setOnMouseMoved(e -> mousePos = new Point2D(e.getX(), e.getY()));
+        pane.setOnMouseExited(e -> mousePos = null);
+
         LongProperty minScrollTime = new SimpleLongProperty();
         pane.setOnScroll(e -> {
             int zoomDelta = (int) Math.signum(e.getDeltaY());
@@ -135,55 +170,239 @@ public final class BaseMapController {
     }
 
     /**
-     * Redraws the canvas if a re-draw has been requested
+     * Redraws the viewport if a re-draw has been requested : entirely if the zoom level or the size of the map
+     * changed, and otherwise only its newly visible strips and the parts of the tiles that arrived
      */
     private void redrawIfNeeded() {
         if (!redrawNeeded) return;
         redrawNeeded = false;
-        GraphicsContext canvasGC = canvas.getGraphicsContext2D();
 
-        double canvasWidth = canvas.getWidth(), canvasHeight = canvas.getHeight();
+        double paneWidth = pane.getWidth(), paneHeight = pane.getHeight();
+        if (paneWidth <= 0 || paneHeight <= 0) return;
         double minX = mapParams.getMinX(), minY = mapParams.getMinY();
-        int tileMinX = getMinTileCoord(minX), tileMinY = getMinTileCoord(minY);
-        int tileMaxX = getMaxTileCoord(minX, canvasWidth), tileMaxY = getMaxTileCoord(minY, canvasHeight);
         int zoom = mapParams.getZoom();
-        canvasGC.clearRect(0, 0, canvasWidth, canvasHeight);
+        // the viewport starts at a whole pixel, and has one more pixel on each axis to show the fractional part
+        int originX = (int) Math.floor(minX), originY = (int) Math.floor(minY);
+        int width = (int) Math.ceil(paneWidth) + 1, height = (int) Math.ceil(paneHeight) + 1;
+
+        int dx = originX - drawnOriginX, dy = originY - drawnOriginY;
+        if (width != viewportWidth || height != viewportHeight) {
+            viewport = new WritableImage(width, height);
+            viewportPixels = new int[width * height];
+            viewportWidth = width;
+            viewportHeight = height;
+            drawnZoom = -1;
+            for (ImageView imageView : imageViews) imageView.setImage(viewport);
+        }
+        drawnOriginX = originX;
+        drawnOriginY = originY;
+
+        if (zoom != drawnZoom || Math.abs(dx) >= width || Math.abs(dy) >= height) {
+            drawnZoom = zoom;
+            replacedTiles.clear();
+            arrivedTiles.clear();
+            drawRegion(0, 0, width, height);
+        } else {
+            int shiftedMinX = Math.max(-dx, 0), shiftedMaxX = width - Math.max(dx, 0);
+            if (dx > 0) drawRegion(shiftedMaxX, 0, dx, height);
+            if (dx < 0) drawRegion(0, 0, -dx, height);
+            if (dy > 0) drawRegion(shiftedMinX, height - dy, shiftedMaxX - shiftedMinX, dy);
+            if (dy < 0) drawRegion(shiftedMinX, 0, shiftedMaxX - shiftedMinX, -dy);
+
+            for (TileManager.TileId id : arrivedTiles) {
+                if (id.zoom() != zoom || !replacedTiles.remove(id)) continue;
+                drawRegion(id.x() * TILE_SIZE - originX, id.y() * TILE_SIZE - originY, TILE_SIZE, TILE_SIZE);
+            }
+            arrivedTiles.clear();
+        }
+
+        // the viewport starts inside the image and continues at its left and top sides
+        double startX = Math.floorMod(originX, width) + minX - originX;
+        double startY = Math.floorMod(originY, height) + minY - originY;
+        double leftWidth = Math.min(width - startX, paneWidth), topHeight = Math.min(height - startY, paneHeight);
+        double rightWidth = paneWidth - leftWidth, bottomHeight = paneHeight - topHeight;
+        showImagePart(imageViews[0], startX, startY, leftWidth, topHeight, 0, 0);
+        showImagePart(imageViews[1], 0, startY, rightWidth, topHeight, leftWidth, 0);
+        showImagePart(imageViews[2], startX, 0, leftWidth, bottomHeight, 0, topHeight);
+        showImagePart(imageViews[3], 0, 0, rightWidth, bottomHeight, leftWidth, topHeight);
+
+        prefetcher.update(zoom, minX, minY, paneWidth, paneHeight, mousePos);
+    }
+
+    /**
+     * Shows the given rectangle of the image with the given image view, at the given position of the pane, or hides
+     * the image view if the rectangle is empty
+     */
+    private static void showImagePart(ImageView imageView, double imageX, double imageY, double width, double height,
+                                      double paneX, double paneY) {
+        boolean visible = width > 0 && height > 0;
+        imageView.setVisible(visible);
+        if (!visible) return;
+        imageView.setViewport(new Rectangle2D(imageX, imageY, width, height));
+        imageView.relocate(paneX, paneY);
+    }
+
+    /**
+     * Draws the given rectangle of the viewport, clipped to the viewport, with the pixels of the tiles covering it,
+     * and copies it to the image, in as many parts as it is split by the edges of the image
+     */
+    private void drawRegion(int regionX, int regionY, int regionWidth, int regionHeight) {
+        int minX = Math.max(regionX, 0), minY = Math.max(regionY, 0);
+        int maxX = Math.min(regionX + regionWidth, viewportWidth);
+        int maxY = Math.min(regionY + regionHeight, viewportHeight);
+        if (minX >= maxX || minY >= maxY) return;
+
+        // the coordinates of the viewport at which the image wraps around
+        int wrapX = viewportWidth - Math.floorMod(drawnOriginX, viewportWidth);
+        int wrapY = viewportHeight - Math.floorMod(drawnOriginY, viewportHeight);
+        drawPart(minX, minY, Math.min(maxX, wrapX), Math.min(maxY, wrapY), wrapX, wrapY);
+        drawPart(Math.max(minX, wrapX), minY, maxX, Math.min(maxY, wrapY), wrapX, wrapY);
+        drawPart(minX, Math.max(minY, wrapY), Math.min(maxX, wrapX), maxY, wrapX, wrapY);
+        drawPart(Math.max(minX, wrapX), Math.max(minY, wrapY), maxX, maxY, wrapX, wrapY);
+    }
 
+    /**
+     * Draws the given rectangle of the viewport, which is on one side of each edge of the image, with the pixels of
+     * the tiles covering it, and copies it to the image
+     */
+    private void drawPart(int minX, int minY, int maxX, int maxY, int wrapX, int wrapY) {
+        if (minX >= maxX || minY >= maxY) return;
+        wrapShiftX = minX < wrapX ? viewportWidth - wrapX : -wrapX;
+        wrapShiftY = minY < wrapY ? viewportHeight - wrapY : -wrapY;
+
+        int tileMinX = Math.floorDiv(drawnOriginX + minX, TILE_SIZE);
+        int tileMinY = Math.floorDiv(drawnOriginY + minY, TILE_SIZE);
+        int tileMaxX = Math.floorDiv(drawnOriginX + maxX - 1, TILE_SIZE);
+        int tileMaxY = Math.floorDiv(drawnOriginY + maxY - 1, TILE_SIZE);
         for (int x = tileMinX; x <= tileMaxX; ++x) {
             for (int y = tileMinY; y <= tileMaxY; ++y) {
-                try {
-                    TileManager.TileId id = new TileManager.TileId(zoom, x, y);
-                    if (!TileManager.TileId.isValid(zoom, x, y)) continue;
-
-                    Image img = tileManager.imageForTileAt(id);
-                    double canvasX = x * TileManager.TileId.TILE_SIZE - minX;
-                    double canvasY = y * TileManager.TileId.TILE_SIZE - minY;
-                    canvasGC.drawImage(img, canvasX, canvasY);
-                } catch (IOException ignored) {
-                }
+                // the part of the tile inside the region, in viewport coordinates
+                int tileX = x * TILE_SIZE - drawnOriginX, tileY = y * TILE_SIZE - drawnOriginY;
+                int partMinX = Math.max(minX, tileX), partMaxX = Math.min(maxX, tileX + TILE_SIZE);
+                int partMinY = Math.max(minY, tileY), partMaxY = Math.min(maxY, tileY + TILE_SIZE);
+                drawTilePart(x, y, tileX, tileY, partMinX, partMinY, partMaxX - partMinX, partMaxY - partMinY);
             }
         }
+        viewport.getPixelWriter().setPixels(minX + wrapShiftX, minY + wrapShiftY, maxX - minX, maxY - minY,
+                PIXEL_FORMAT, viewportPixels, pixelIndex(minX, minY), viewportWidth);
     }
 
     /**
-     * Returns the minimum tile coordinate given the actual minimum coordinate
-     *
-     * @param minCoord (double) : actual minimum coordinate
-     * @return minimum tile coordinate given the actual minimum coordinate
+     * Draws the given part of the viewport, covered by the tile of the given indices placed at the given position of
+     * the viewport, with the pixels of the tile, of its closest ancestor in the memory cache, or of a placeholder
+     */
+    private void drawTilePart(int x, int y, int tileX, int tileY, int partX, int partY, int partWidth,
+                              int partHeight) {
+        if (!TileManager.TileId.isValid(drawnZoom, x, y)) {
+            fillPart(partX, partY, partWidth, partHeight, 0);
+            return;
+        }
+        TileManager.TileId id = new TileManager.TileId(drawnZoom, x, y);
+        TileAtlas.Tile tile = tileManager.cachedImageForTileAt(id);
+        // the tile may have been evicted from the memory cache since it was looked up
+        if (tile != null && tile.readPixels(partX - tileX, partY - tileY, partWidth, partHeight,
+                viewportPixels, pixelIndex(partX, partY), viewportWidth)) {
+            return;
+        }
+
+        requestTile(id);
+        replacedTiles.add(id);
+        drawAncestorPart(id, tileX, tileY, partX, partY, partWidth, partHeight);
+    }
+
+    /**
+     * Draws, in place of the given part of the given tile, the part of its closest ancestor that is in the memory
+     * cache, scaled up, or a placeholder if there is none
      */
-    private int getMinTileCoord(double minCoord) {
-        return (int) (minCoord / TileManager.TileId.TILE_SIZE);
+    private void drawAncestorPart(TileManager.TileId id, int tileX, int tileY, int partX, int partY, int partWidth,
+                                  int partHeight) {
+        for (int distance = 1; distance <= Math.min(MAX_ANCESTOR_DISTANCE, id.zoom()); ++distance) {
+            TileManager.TileId ancestor =
+                    new TileManager.TileId(id.zoom() - distance, id.x() >> distance, id.y() >> distance);
+            TileAtlas.Tile tile = tileManager.cachedImageForTileAt(ancestor);
+            if (tile == null) continue;
+
+            // the part of the ancestor covering the tile
+            int scale = 1 << distance;
+            int mask = scale - 1;
+            int ancestorX = (id.x() & mask) * TILE_SIZE / scale, ancestorY = (id.y() & mask) * TILE_SIZE / scale;
+            if (drawScaledPart(tile, ancestorX, ancestorY, scale, tileX, tileY, partX, partY, partWidth, partHeight)) {
+                return;
+            }
+        }
+        fillPart(partX, partY, partWidth, partHeight, PLACEHOLDER_ARGB);
     }
 
     /**
-     * Returns the maximum tile coordinate given the actual minimum coordinate
-     *
-     * @param minCoord   (double) : actual minimum coordinate
-     * @param canvasSize (double) : either width or height of the canvas
-     * @return maximum tile coordinate given the actual minimum coordinate
+     * Draws the given part of the viewport with the pixels of the given tile, whose pixel at the given coordinates is
+     * at the given position of the viewport, scaled up by the given factor using the nearest pixel, and returns false
+     * if the tile was evicted from the memory cache
+     */
+    private boolean drawScaledPart(TileAtlas.Tile tile, int tileImgX, int tileImgY, int scale, int tileX, int tileY,
+                                   int partX, int partY, int partWidth, int partHeight) {
+        // the pixels of the tile covering the part, read at once and then repeated
+        int srcMinX = tileImgX + (partX - tileX) / scale, srcMinY = tileImgY + (partY - tileY) / scale;
+        int srcMaxX = tileImgX + (partX - tileX + partWidth - 1) / scale;
+        int srcMaxY = tileImgY + (partY - tileY + partHeight - 1) / scale;
+        int srcWidth = srcMaxX - srcMinX + 1, srcHeight = srcMaxY - srcMinY + 1;
+        if (ancestorPixels == null || ancestorPixels.length < srcWidth * srcHeight) {
+            ancestorPixels = new int[srcWidth * srcHeight];
+        }
+        if (!tile.readPixels(srcMinX, srcMinY, srcWidth, srcHeight, ancestorPixels, 0, srcWidth)) return false;
+
+        for (int py = partY; py < partY + partHeight; ++py) {
+            int srcY = tileImgY + (py - tileY) / scale - srcMinY;
+            int row = pixelIndex(0, py);
+            for (int px = partX; px < partX + partWidth; ++px) {
+                viewportPixels[row + px] = ancestorPixels[srcY * srcWidth + tileImgX + (px - tileX) / scale - srcMinX];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills the given part of the viewport with the given color
+     */
+    private void fillPart(int partX, int partY, int partWidth, int partHeight, int argb) {
+        for (int py = partY; py < partY + partHeight; ++py) {
+            int row = pixelIndex(0, py);
+            Arrays.fill(viewportPixels, row + partX, row + partX + partWidth, argb);
+        }
+    }
+
+    /**
+     * Returns the index in the pixels of the image of the given pixel of the viewport, in the part being drawn
+     */
+    private int pixelIndex(int x, int y) {
+        return (y + wrapShiftY) * viewportWidth + x + wrapShiftX;
+    }
+
+    /**
+     * Requests the given tile from the background loaders of the tile manager, unless it was already requested, and
+     * draws its part of the map again when it arrives
+     */
+    private void requestTile(TileManager.TileId id) {
+        if (!requestedTiles.add(id)) return;
+        tileManager.loadImageForTileAt(id).whenComplete((img, e) -> Platform.runLater(() -> {
+            requestedTiles.remove(id);
+            if (img != null) {
+                arrivedTiles.add(id);
+                redrawOnNextPulse();
+            } else {
+                // the tile will be requested again when its part of the map is drawn again
+                replacedTiles.remove(id);
+            }
+        }));
+    }
+
+    /**
+     * Returns the given opaque color as a premultiplied ARGB integer
      */
-    private int getMaxTileCoord(double minCoord, double canvasSize) {
-        return (int) ((minCoord + canvasSize) / TileManager.TileId.TILE_SIZE);
+    private static int argb(Color color) {
+        return 0xFF << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
     }
 
 }
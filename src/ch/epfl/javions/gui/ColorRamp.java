@@ -2,18 +2,33 @@ package ch.epfl.javions.gui;
 
 import ch.epfl.javions.Preconditions;
 import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.Paint;
+import javafx.scene.paint.Stop;
 
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Represents a color gradient named Plasma
+ * <p>
+ * The colors of the ramp are computed once, for a fixed number of evenly spaced parameters (the buckets of the ramp),
+ * so that getting a color never allocates anything. The gradients going from one color to another are also created
+ * only once per pair of (coarser) buckets, and cached.
  *
  * @author Leon Petrinos (357588)
  * @author Andrea Trugenberger (357615)
  */
 public final class ColorRamp {
+    /**
+     * Number of colors computed in advance, and therefore of distinct colors returned by the ramp
+     */
+    public static final int BUCKET_COUNT = 1 << 10;
+    private static final int GRADIENT_BUCKET_COUNT = 1 << 6;
     private final Color[] colors;
+    private final Color[] table;
+    private final LinearGradient[] gradients;
 
     /**
      * Plasma sequence of colors
@@ -36,6 +51,8 @@ public final class ColorRamp {
             Color.valueOf("0xfccf25ff"), Color.valueOf("0xf9dd24ff"),
             Color.valueOf("0xf5eb27ff"), Color.valueOf("0xf0f921ff"));
 
+    private static final double APPROXIMATE_MAX_ALTITUDE = 12000d;
+
     /**
      * Initiates an array of colors
      *
@@ -45,15 +62,106 @@ public final class ColorRamp {
     public ColorRamp(Color... colors) {
         Preconditions.checkArgument(colors.length >= 2);
         this.colors = colors.clone();
+        this.table = new Color[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            table[i] = interpolate((double) i / (BUCKET_COUNT - 1));
+        }
+        this.gradients = new LinearGradient[GRADIENT_BUCKET_COUNT * GRADIENT_BUCKET_COUNT];
     }
 
     /**
-     * Determines a color given the parameter d of the function
+     * Determines the color of an aircraft (or of its trajectory) flying at the given altitude
+     *
+     * @param altitude (double) : altitude of the aircraft, in meters
+     * @return the color corresponding to the altitude
+     */
+    public Color atAltitude(double altitude) {
+        return at(positionAtAltitude(altitude));
+    }
+
+    /**
+     * Determines the bucket of the color of an aircraft (or of its trajectory) flying at the given altitude
+     *
+     * @param altitude (double) : altitude of the aircraft, in meters
+     * @return the bucket corresponding to the altitude, between 0 (included) and BUCKET_COUNT (excluded)
+     */
+    public static int bucketAtAltitude(double altitude) {
+        return bucketAt(positionAtAltitude(altitude));
+    }
+
+    /**
+     * Determines the bucket of the color given the parameter d of the function
+     *
+     * @param d (double) : number calculated using the altitude of the aircraft
+     * @return the bucket corresponding to the parameter, between 0 (included) and BUCKET_COUNT (excluded)
+     */
+    public static int bucketAt(double d) {
+        if (!(d > 0)) return 0;
+        if (d >= 1) return BUCKET_COUNT - 1;
+        return (int) Math.rint(d * (BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Returns the color of the given bucket
+     *
+     * @param bucket (int) : bucket of the color
+     * @return the color of the bucket
+     * @throws IndexOutOfBoundsException if the bucket is not between 0 (included) and BUCKET_COUNT (excluded)
+     */
+    public Color atBucket(int bucket) {
+        return table[bucket];
+    }
+
+    /**
+     * Returns the paint of a segment going from a point whose color is in the first bucket to a point whose color is
+     * in the second one : a color if both are similar, and a horizontal gradient proportional to the segment
+     * otherwise. The gradients are created once per pair of coarser buckets.
+     *
+     * @param fromBucket (int) : bucket of the color at the start of the segment
+     * @param toBucket   (int) : bucket of the color at the end of the segment
+     * @return the paint of the segment
+     * @throws IndexOutOfBoundsException if a bucket is not between 0 (included) and BUCKET_COUNT (excluded)
+     */
+    public Paint gradient(int fromBucket, int toBucket) {
+        int from = fromBucket * GRADIENT_BUCKET_COUNT / BUCKET_COUNT;
+        int to = toBucket * GRADIENT_BUCKET_COUNT / BUCKET_COUNT;
+        if (from == to) return table[fromBucket];
+
+        int index = from * GRADIENT_BUCKET_COUNT + to;
+        LinearGradient gradient = gradients[index];
+        if (gradient == null) {
+            gradient = new LinearGradient(0, 0, 1, 0, true, CycleMethod.NO_CYCLE,
+                    new Stop(0, table[fromBucket]), new Stop(1, table[toBucket]));
+            gradients[index] = gradient;
+        }
+        return gradient;
+    }
+
+    /**
+     * Determines the parameter of the ramp corresponding to the given altitude, the altitudes being spread so that
+     * the low ones, where most aircraft fly close to each other, get more distinct colors
+     *
+     * @param altitude (double) : altitude of the aircraft, in meters
+     * @return the parameter of the ramp corresponding to the altitude, not necessarily between 0 and 1
+     */
+    public static double positionAtAltitude(double altitude) {
+        return Math.pow(altitude / APPROXIMATE_MAX_ALTITUDE, 1d / 3d);
+    }
+
+    /**
+     * Determines a color given the parameter d of the function, among the colors computed in advance
      *
      * @param d (double) : number calculated using the altitude of the aircraft
      * @return a color given the parameter d of the function
      */
     public Color at(double d) {
+        return table[bucketAt(d)];
+    }
+
+    /**
+     * Interpolates the color given the parameter d of the function between the two closest colors of the ramp
+     */
+    private Color interpolate(double d) {
         if (d <= 0) {
             return colors[0];
         }
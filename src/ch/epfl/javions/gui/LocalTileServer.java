@@ -0,0 +1,199 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Tile server serving the tiles of a pack over HTTP, at zoom/x/y.png like the OpenStreetMap tile server, to be used
+ * in its place when there is no network access or to load-test the fetching of the tiles.
+ * <p>
+ * The tiles are served with an entity tag and a maximum age, so that the conditional requests of the program are
+ * answered without the image when it did not change. A latency can be added to every response to simulate a distant
+ * server.
+ * <p>
+ * Usage : {@code LocalTileServer <tile pack> [--port <port>] [--latency <milliseconds>]}
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class LocalTileServer implements Closeable {
+    /**
+     * Default port of the server
+     */
+    public static final int DEFAULT_PORT = 8080;
+    private static final String PORT_OPTION = "--port";
+    private static final String LATENCY_OPTION = "--latency";
+    private static final String USAGE = "Usage: LocalTileServer <tile pack> [--port <port>] [--latency <ms>]";
+    private static final Pattern TILE_PATH = Pattern.compile("/(\\d{1,2})/(\\d{1,9})/(\\d{1,9})\\.png");
+    private static final Duration MAX_AGE = Duration.ofDays(1);
+    private static final int THREADS = 8;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_BAD_METHOD = 405;
+    private static final int NO_BODY = -1;
+    private final TilePack pack;
+    private final Duration latency;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requestCount;
+
+    /**
+     * Creates a server of the tiles of the given pack, listening on the given address once started
+     *
+     * @param pack    (TilePack) : pack of the tiles served
+     * @param address (InetSocketAddress) : address of the server, whose port is chosen by the system if it is 0
+     * @param latency (Duration) : time waited before every response, positive or zero
+     * @throws IllegalArgumentException if the latency is negative
+     * @throws IOException              if the server could not listen on the address
+     */
+    public LocalTileServer(TilePack pack, InetSocketAddress address, Duration latency) throws IOException {
+        Preconditions.checkArgument(!latency.isNegative());
+        this.pack = pack;
+        this.latency = latency;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(THREADS);
+        this.requestCount = new AtomicLong();
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts answering the requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the base URI of the server, to be given to a tile fetcher
+     *
+     * @return base URI of the server, ending with a slash
+     */
+    public URI baseUri() {
+        InetSocketAddress address = server.getAddress();
+        String host = address.getAddress().isAnyLocalAddress()
+                ? InetAddress.getLoopbackAddress().getHostAddress()
+                : address.getHostString();
+        return URI.create("http://" + host + ":" + address.getPort() + "/");
+    }
+
+    /**
+     * Returns the number of requests received since the server was created
+     *
+     * @return number of requests
+     */
+    public long requestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Stops the server, without closing its pack
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Serves the pack of tiles given as first argument until the program is stopped
+     *
+     * @param args (String[]) : arguments
+     * @throws IOException if the pack could not be opened or if the server could not be started
+     */
+    public static void main(String[] args) throws IOException {
+        String packPath = null;
+        int port = DEFAULT_PORT;
+        Duration latency = Duration.ZERO;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals(PORT_OPTION) && hasValue) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals(LATENCY_OPTION) && hasValue) {
+                    latency = Duration.ofMillis(Long.parseLong(args[++i]));
+                } else if (packPath == null && !args[i].startsWith("--")) {
+                    packPath = args[i];
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (packPath == null || port < 0 || port > 0xFFFF || latency.isNegative()) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        TilePack pack = TilePack.open(Path.of(packPath));
+        LocalTileServer server = new LocalTileServer(pack, new InetSocketAddress(port), latency);
+        server.start();
+        System.out.printf("Serving %s, run the program with --tile-server=%s%n", packPath, server.baseUri());
+    }
+
+    /**
+     * Answers the given request with the image of the tile at its path
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requestCount.incrementAndGet();
+            if (!latency.isZero()) Thread.sleep(latency.toMillis());
+
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(HTTP_BAD_METHOD, NO_BODY);
+                return;
+            }
+            Matcher matcher = TILE_PATH.matcher(exchange.getRequestURI().getPath());
+            byte[] bytes = null;
+            if (matcher.matches()) {
+                int zoom = Integer.parseInt(matcher.group(1));
+                int x = Integer.parseInt(matcher.group(2));
+                int y = Integer.parseInt(matcher.group(3));
+                if (TileManager.TileId.isValid(zoom, x, y)) bytes = pack.read(new TileManager.TileId(zoom, x, y));
+            }
+            if (bytes == null) {
+                exchange.sendResponseHeaders(HTTP_NOT_FOUND, NO_BODY);
+                return;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            String entityTag = "\"" + Long.toHexString(crc.getValue()) + "\"";
+            exchange.getResponseHeaders().set("ETag", entityTag);
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=" + MAX_AGE.toSeconds());
+            if (entityTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HTTP_NOT_MODIFIED, NO_BODY);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(HTTP_OK, bytes.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+}
@@ -1,11 +1,13 @@
 package ch.epfl.javions.gui;
 
 import ch.epfl.javions.ByteString;
-import ch.epfl.javions.adsb.Message;
+import ch.epfl.javions.adsb.DuplicateFilter;
 import ch.epfl.javions.adsb.MessageParser;
 import ch.epfl.javions.adsb.RawMessage;
+import ch.epfl.javions.adsb.RawMessageRingBuffer.OverflowPolicy;
 import ch.epfl.javions.aircraft.AircraftDatabase;
 import ch.epfl.javions.demodulation.AdsbDemodulator;
+import ch.epfl.javions.recording.MessageRecorder;
 import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.beans.binding.Bindings;
@@ -20,10 +22,11 @@ import javafx.scene.layout.StackPane;
 import javafx.stage.Stage;
 
 import java.io.*;
+import java.net.URI;
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Supplier;
 
 /**
@@ -39,13 +42,23 @@ public final class Main extends Application {
     private static final int STAGE_WIDTH = 800;
     private static final int STAGE_HEIGHT = 600;
     private static final String CACHE_MEMORY_PATH = "tile-cache";
-    private static final String TILE_SERVER = "tile.openstreetmap.org";
+    private static final String TILE_SERVER = "https://tile.openstreetmap.org/";
     private static final String RESOURCE_ZIP = "/aircraft.zip";
     private static final String STAGE_TITLE = "Javions";
+    private static final String RECORD_PARAMETER = "record";
+    private static final String RENDERER_PARAMETER = "renderer";
+    private static final String CANVAS_RENDERER = "canvas";
+    private static final String TILE_CACHE_QUOTA_PARAMETER = "tile-cache-quota";
+    private static final String TILE_SERVER_PARAMETER = "tile-server";
+    private static final long MAX_RECORDING_FILE_BYTES = 256L << 20;
+    private static final Duration MAX_RECORDING_FILE_DURATION = Duration.ofHours(1);
     private static final long MILLION = (long) 1e6;
     private static final long SECOND_IN_NS = (long) 1e9;
     private long initialStartTime;
     private long lastPurgeTime = 0L;
+    private MessageRecorder recorder;
+    private AircraftStateShards shards;
+    private TileManager tileManager;
 
     /**
      * Launches the application
@@ -62,15 +75,29 @@ public final class Main extends Application {
         AircraftDatabase database = createDataBase();
 
         Path tileCache = Path.of(CACHE_MEMORY_PATH);
-        TileManager tileManager = new TileManager(tileCache, TILE_SERVER);
+        // the quota of the disk cache is given in MiB
+        String tileCacheQuota = getParameters().getNamed().get(TILE_CACHE_QUOTA_PARAMETER);
+        long diskCacheQuota = tileCacheQuota != null ?
+                Long.parseLong(tileCacheQuota) << 20 :
+                TileManager.DEFAULT_DISK_CACHE_QUOTA_BYTES;
+        String tileServer = getParameters().getNamed().getOrDefault(TILE_SERVER_PARAMETER, TILE_SERVER);
+        TileFetcher tileFetcher = new TileFetcher(URI.create(tileServer));
+        tileManager = new TileManager(tileCache, tileFetcher, TileMemoryCache.DEFAULT_CAPACITY_BYTES, diskCacheQuota);
         MapParameters mapParams = new MapParameters(INITIAL_ZOOM, INITIAL_MINX, INITIAL_MINY);
         BaseMapController baseMapController = new BaseMapController(tileManager, mapParams);
 
-        AircraftStateManager stateManager = new AircraftStateManager(database);
+        // the live messages are too frequent to be kept when the interface is late, contrary to the file messages
+        boolean live = getParameters().getUnnamed().isEmpty();
+        shards = new AircraftStateShards(database, AircraftStateShards.DEFAULT_SHARD_COUNT,
+                live ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.BLOCK);
+        AircraftStateManager stateManager = new AircraftStateManager(shards);
         ObjectProperty<ObservableAircraftState> selectedAircraftState = new SimpleObjectProperty<>();
 
-        AircraftController aircraftController =
-                new AircraftController(mapParams, stateManager.states(), selectedAircraftState);
+        // the canvas renderer draws all the aircraft on a single node, for when there are too many of them
+        Pane aircraftPane = CANVAS_RENDERER.equals(getParameters().getNamed().get(RENDERER_PARAMETER)) ?
+                new AircraftCanvasController(mapParams, shards.world(), stateManager.states(), selectedAircraftState)
+                        .pane() :
+                new AircraftController(mapParams, stateManager.states(), selectedAircraftState).pane();
         AircraftTableController aircraftTableController =
                 new AircraftTableController(stateManager.states(), selectedAircraftState);
         StatusLineController statusLineController = new StatusLineController();
@@ -78,17 +105,14 @@ public final class Main extends Application {
         aircraftTableController.setOnDoubleClick(oas -> baseMapController.centerOn(oas.getPosition()));
         statusLineController.aircraftCountProperty().bind(Bindings.size(stateManager.states()));
 
-        ConcurrentLinkedQueue<Message> messageQueue = new ConcurrentLinkedQueue<>();
-        Supplier<Message> messageSupplier = (getParameters().getRaw().isEmpty()) ?
-                airspyMessageSupplier() :
-                fileMessageSupplier();
+        Supplier<RawMessage> messageSupplier = live ? airspyMessageSupplier() : fileMessageSupplier();
 
-        createThread(messageQueue, messageSupplier);
-        createAnimationTimer(messageQueue, stateManager, statusLineController);
+        createThread(shards, messageSupplier);
+        createAnimationTimer(shards, stateManager, statusLineController);
 
         SplitPane root = createMainPane(
                 baseMapController,
-                aircraftController,
+                aircraftPane,
                 aircraftTableController,
                 statusLineController
         );
@@ -96,12 +120,19 @@ public final class Main extends Application {
         setStage(primaryStage, root);
     }
 
+    @Override
+    public void stop() throws IOException {
+        if (shards != null) shards.close();
+        if (recorder != null) recorder.close();
+        if (tileManager != null) tileManager.close();
+    }
+
     /**
      * Creates the main pane with the map, table and aircraft
      */
-    private SplitPane createMainPane(BaseMapController bmc, AircraftController ac, AircraftTableController atc,
+    private SplitPane createMainPane(BaseMapController bmc, Pane aircraftPane, AircraftTableController atc,
                                      StatusLineController slc) {
-        Pane aircraftMap = new StackPane(bmc.pane(), ac.pane());
+        Pane aircraftMap = new StackPane(bmc.pane(), aircraftPane);
         Pane aircraftTable = new BorderPane(atc.pane(), slc.pane(), null, null, null);
         SplitPane root = new SplitPane(aircraftMap, aircraftTable);
         root.setOrientation(Orientation.VERTICAL);
@@ -131,14 +162,14 @@ public final class Main extends Application {
     }
 
     /**
-     * Creates the second thread used to read the messages
+     * Creates the second thread used to read the messages and send them to the shards
      */
-    private void createThread(ConcurrentLinkedQueue<Message> messageQueue, Supplier<Message> messageSupplier) {
+    private void createThread(AircraftStateShards shards, Supplier<RawMessage> messageSupplier) {
         Thread messageThread = new Thread(() -> {
             for (; ; ) {
-                Message m = messageSupplier.get();
+                RawMessage m = messageSupplier.get();
                 if (m != null) {
-                    messageQueue.add(m);
+                    shards.offer(m);
                 }
             }
         });
@@ -147,45 +178,42 @@ public final class Main extends Application {
     }
 
     /**
-     * Creates the animation timer that updates the messages
+     * Creates the animation timer that publishes the updates of the shards to the aircraft states
      */
-    private void createAnimationTimer(
-            ConcurrentLinkedQueue<Message> messageQueue, AircraftStateManager asm, StatusLineController slc) {
+    private void createAnimationTimer(AircraftStateShards shards, AircraftStateManager asm, StatusLineController slc) {
         new AnimationTimer() {
             @Override
             public void handle(long now) {
-                try {
-                    while (!messageQueue.isEmpty()) {
-                        Message m = messageQueue.poll();
-                        if (m != null) {
-                            asm.updateWithMessage(m);
-                            slc.messageCountProperty().set(slc.messageCountProperty().getValue() + 1);
-                        }
-                        if ((now - lastPurgeTime >= SECOND_IN_NS)) {
-                            asm.purge();
-                            lastPurgeTime = now;
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                asm.publishUpdates();
+                slc.messageCountProperty().set(shards.messageCount());
+                if (now - lastPurgeTime >= SECOND_IN_NS) {
+                    asm.purge();
+                    lastPurgeTime = now;
                 }
             }
         }.start();
     }
 
     /**
-     * Supplies the messages that come from the air spy (System.in
+     * Supplies the valid messages that come from the air spy (System.in), and records them if a recording directory
+     * was given with the parameter --record=directory
      */
-    private Supplier<Message> airspyMessageSupplier() throws IOException {
+    private Supplier<RawMessage> airspyMessageSupplier() throws IOException {
         AdsbDemodulator demodulator = new AdsbDemodulator(System.in);
+        DuplicateFilter duplicateFilter = new DuplicateFilter();
+        String recordingDirectory = getParameters().getNamed().get(RECORD_PARAMETER);
+        if (recordingDirectory != null) {
+            recorder = new MessageRecorder(
+                    Path.of(recordingDirectory), MAX_RECORDING_FILE_BYTES, MAX_RECORDING_FILE_DURATION);
+        }
         return () -> {
             for (; ; ) {
                 try {
                     RawMessage rawMessage;
                     if ((rawMessage = demodulator.nextMessage()) != null) {
-                        Message m = MessageParser.parse(rawMessage);
-                        if (m != null) {
-                            return m;
+                        if (recorder != null) recorder.offer(rawMessage);
+                        if (!duplicateFilter.isDuplicate(rawMessage)) {
+                            return rawMessage;
                         }
                     }
                 } catch (IOException e) {
@@ -198,12 +226,12 @@ public final class Main extends Application {
     /**
      * Supplies messages from a given file
      */
-    private Supplier<Message> fileMessageSupplier() throws IOException {
-        List<Message> allMessages = readAllMessages(getParameters().getRaw().get(0));
-        Iterator<Message> it = allMessages.iterator();
+    private Supplier<RawMessage> fileMessageSupplier() throws IOException {
+        List<RawMessage> allMessages = readAllMessages(getParameters().getUnnamed().get(0));
+        Iterator<RawMessage> it = allMessages.iterator();
         return () -> {
             if (it.hasNext()) {
-                Message m = it.next();
+                RawMessage m = it.next();
                 sleepIfNeeded(m);
                 return m;
             }
@@ -214,7 +242,7 @@ public final class Main extends Application {
     /**
      * Method checking if the program should wait to show an aircraft depending on its timestamp
      */
-    private void sleepIfNeeded(Message m) throws RuntimeException {
+    private void sleepIfNeeded(RawMessage m) throws RuntimeException {
         long timeElapsedNs = m.timeStampNs() - (System.nanoTime() - initialStartTime);
         if (timeElapsedNs >= 0) {
             try {
@@ -226,10 +254,11 @@ public final class Main extends Application {
     }
 
     /**
-     * reads all the messages from a given file
+     * reads all the messages from a given file that can be parsed, except the duplicates
      */
-    private static List<Message> readAllMessages(String fileName) throws IOException {
-        List<Message> messages = new ArrayList<>();
+    private static List<RawMessage> readAllMessages(String fileName) throws IOException {
+        List<RawMessage> messages = new ArrayList<>();
+        DuplicateFilter duplicateFilter = new DuplicateFilter();
         try (DataInputStream s = new DataInputStream(
                 new BufferedInputStream(
                         new FileInputStream(fileName)))) {
@@ -239,9 +268,10 @@ public final class Main extends Application {
                 int bytesRead = s.readNBytes(bytes, 0, bytes.length);
                 assert bytesRead == RawMessage.LENGTH;
                 ByteString byteString = new ByteString(bytes);
-                Message m = MessageParser.parse(new RawMessage(timeStampNs, byteString));
-                if (m != null) {
-                    messages.add(m);
+                RawMessage rawMessage = new RawMessage(timeStampNs, byteString);
+                if (duplicateFilter.isDuplicate(rawMessage)) continue;
+                if (MessageParser.parse(rawMessage) != null) {
+                    messages.add(rawMessage);
                 }
             }
         } catch (EOFException ignored) {
@@ -0,0 +1,179 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.adsb.*;
+import ch.epfl.javions.aircraft.IcaoAddress;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Moves the messages of a ring buffer to a sink, in batches, during at most a given time per call, so that a burst of
+ * messages never keeps its thread busy for longer than the budget.
+ * <p>
+ * When the messages of the buffer could not all be processed within the budget, the drainer falls behind, and then
+ * coalesces the messages of each batch : all the position messages are kept (their positions are decoded in pairs and
+ * form the trajectories), but only the last identification message and the last velocity message of each aircraft are
+ * applied, since they overwrite the previous ones.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MessageDrainer {
+    /**
+     * Default time budget of a call to drain, in nanoseconds
+     */
+    public static final long DEFAULT_BUDGET_NS = 4_000_000L;
+    private static final int BATCH_SIZE = 1 << 7;
+    private static final int CATCH_UP_BATCH_SIZE = 1 << 10;
+    private final RawMessageRingBuffer messageBuffer;
+    private final MessageSink sink;
+    private final long budgetNs;
+    private final Message[] batch;
+    private final Set<IcaoAddress> identifiedAircraft;
+    private final Set<IcaoAddress> aircraftWithVelocity;
+    private int batchCount;
+    private boolean behind;
+    private long messageCount;
+    private long coalescedCount;
+
+    /**
+     * Creates a drainer
+     *
+     * @param messageBuffer (RawMessageRingBuffer) : buffer of the messages, of which the drainer is the consumer
+     * @param sink          (MessageSink) : receiver of the valid messages
+     * @param budgetNs      (long) : time budget of a call to drain, in nanoseconds
+     * @throws IllegalArgumentException if the time budget is not strictly positive
+     */
+    public MessageDrainer(RawMessageRingBuffer messageBuffer, MessageSink sink, long budgetNs) {
+        Preconditions.checkArgument(budgetNs > 0);
+        this.messageBuffer = messageBuffer;
+        this.sink = sink;
+        this.budgetNs = budgetNs;
+        this.batch = new Message[CATCH_UP_BATCH_SIZE];
+        this.identifiedAircraft = new HashSet<>();
+        this.aircraftWithVelocity = new HashSet<>();
+    }
+
+    /**
+     * Processes messages of the buffer until it is empty or until the time budget is used up
+     *
+     * @return number of messages removed from the buffer
+     * @throws IOException if an input/output error occurs in the sink
+     */
+    public int drain() throws IOException {
+        long deadline = System.nanoTime() + budgetNs;
+        int drained = 0;
+        do {
+            batchCount = 0;
+            int count = messageBuffer.drain(this::parse, behind ? CATCH_UP_BATCH_SIZE : BATCH_SIZE);
+            if (count == 0) {
+                behind = false;
+                return drained;
+            }
+            drained += count;
+            if (behind) coalesceBatch();
+            applyBatch();
+        } while (System.nanoTime() < deadline);
+        behind = backlog() > 0;
+        return drained;
+    }
+
+    /**
+     * Returns the number of messages still waiting in the buffer (which can be outdated as soon as it is returned)
+     *
+     * @return number of messages waiting in the buffer
+     */
+    public int backlog() {
+        return messageBuffer.size();
+    }
+
+    /**
+     * Returns true if the last call to drain could not process all the messages of the buffer, in which case the
+     * messages are coalesced
+     *
+     * @return true if the drainer is behind
+     */
+    public boolean isBehind() {
+        return behind;
+    }
+
+    /**
+     * Returns the number of valid messages received, including the ones skipped by coalescing
+     *
+     * @return number of valid messages received
+     */
+    public long messageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Returns the number of messages that were skipped because a more recent message of the same batch replaced them
+     *
+     * @return number of messages skipped by coalescing
+     */
+    public long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Parses a message removed from the buffer and adds it to the batch if it is valid
+     */
+    private void parse(long timeStampNs, long firstHalf, long secondHalf) {
+        Message m = MessageParser.parse(RawMessage.ofHalves(timeStampNs, firstHalf, secondHalf));
+        if (m != null) {
+            batch[batchCount++] = m;
+            ++messageCount;
+        }
+    }
+
+    /**
+     * Removes from the batch, going backwards, the identification and velocity messages followed by a message of the
+     * same kind from the same aircraft
+     */
+    private void coalesceBatch() {
+        for (int i = batchCount - 1; i >= 0; --i) {
+            Message m = batch[i];
+            Set<IcaoAddress> seen;
+            if (m instanceof AircraftIdentificationMessage) seen = identifiedAircraft;
+            else if (m instanceof AirborneVelocityMessage) seen = aircraftWithVelocity;
+            else continue;
+
+            if (!seen.add(m.icaoAddress())) {
+                batch[i] = null;
+                ++coalescedCount;
+            }
+        }
+        identifiedAircraft.clear();
+        aircraftWithVelocity.clear();
+    }
+
+    /**
+     * Passes the messages of the batch to the sink, in order
+     */
+    private void applyBatch() throws IOException {
+        for (int i = 0; i < batchCount; ++i) {
+            if (batch[i] != null) {
+                sink.accept(batch[i]);
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Receiver of the messages of a drainer
+     */
+    @FunctionalInterface
+    public interface MessageSink {
+
+        /**
+         * Receives a valid message
+         *
+         * @param m (Message) : message received
+         * @throws IOException if an input/output error occurs
+         */
+        void accept(Message m) throws IOException;
+    }
+
+}
@@ -1,13 +1,14 @@
 package ch.epfl.javions.gui;
 
 import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.adsb.AircraftSnapshot;
 import ch.epfl.javions.adsb.AircraftStateSetter;
 import ch.epfl.javions.adsb.CallSign;
 import ch.epfl.javions.aircraft.AircraftData;
 import ch.epfl.javions.aircraft.IcaoAddress;
 import javafx.beans.property.*;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+
+import java.util.Objects;
 
 /**
  * Represents the state of an aircraft, which is observable in the sense of the Observer Design Pattern.
@@ -25,12 +26,12 @@ public final class ObservableAircraftState implements AircraftStateSetter {
     private final DoubleProperty altitudeProperty;
     private final DoubleProperty velocityProperty;
     private final DoubleProperty trackOrHeadingProperty;
-    private final ObservableList<AirbornePos> modifiablePositions;
-    private final ObservableList<AirbornePos> unmodifiablePositions;
+    private final Trajectory trajectory;
+    private final LongProperty trajectoryVersionProperty;
 
     /**
-     * Creates an observable aircraft state and initializes two lists to be filled with airborne positions of
-     * the aircraft. One is modifiable and one is unmodifiable.
+     * Creates an observable aircraft state and initializes the bounded trajectory to be filled with airborne
+     * positions of the aircraft
      *
      * @param icaoAddress  (IcaoAddress) : ICAO address of the aircraft
      * @param aircraftData (AircraftData) : Fixed characteristics of the aircraft
@@ -38,8 +39,8 @@ public final class ObservableAircraftState implements AircraftStateSetter {
     public ObservableAircraftState(IcaoAddress icaoAddress, AircraftData aircraftData) {
         this.icaoAddress = icaoAddress;
         this.aircraftData = aircraftData;
-        this.modifiablePositions = FXCollections.observableArrayList();
-        this.unmodifiablePositions = FXCollections.unmodifiableObservableList(modifiablePositions);
+        this.trajectory = new Trajectory();
+        this.trajectoryVersionProperty = new SimpleLongProperty();
         this.timeStampProperty = new SimpleLongProperty();
         this.categoryProperty = new SimpleIntegerProperty();
         this.callSignProperty = new SimpleObjectProperty<>();
@@ -160,7 +161,8 @@ public final class ObservableAircraftState implements AircraftStateSetter {
     public void setPosition(GeoPos position) {
         this.positionProperty.set(position);
         if (!Double.isInfinite(getAltitude())) {
-            modifiablePositions.add(new AirbornePos(position, getAltitude(), getLastMessageTimeStampNs()));
+            trajectory.add(position, getAltitude(), getLastMessageTimeStampNs());
+            trajectoryVersionProperty.set(trajectory.version());
         }
     }
 
@@ -193,13 +195,9 @@ public final class ObservableAircraftState implements AircraftStateSetter {
         GeoPos pos = getPosition();
         if (pos == null) return;
 
-        AirbornePos currentPosition = new AirbornePos(pos, altitude, getLastMessageTimeStampNs());
-        if (modifiablePositions.isEmpty()) {
-            modifiablePositions.add(currentPosition);
-        }
-        AirbornePos lastPosition = modifiablePositions.get(modifiablePositions.size() - 1);
-        if (getLastMessageTimeStampNs() == lastPosition.timeStampNs) {
-            modifiablePositions.set(modifiablePositions.size() - 1, currentPosition);
+        if (trajectory.size() == 0 || getLastMessageTimeStampNs() == trajectory.timeStampNs(trajectory.size() - 1)) {
+            trajectory.replaceLast(pos, altitude, getLastMessageTimeStampNs());
+            trajectoryVersionProperty.set(trajectory.version());
         }
 
     }
@@ -279,16 +277,55 @@ public final class ObservableAircraftState implements AircraftStateSetter {
     }
 
     /**
-     * Returns an unmodifiable observable list containing the aircraft trajectory
+     * Sets all the properties to the values of the given update, and adds its new trajectory points with a single
+     * change of the trajectory version. The properties whose value did not change do not notify their listeners.
+     *
+     * @param update (AircraftStateUpdate) : update of the state of the aircraft
+     */
+    public void publish(AircraftStateUpdate update) {
+        AircraftSnapshot snapshot = update.snapshot();
+        timeStampProperty.set(snapshot.lastMessageTimeStampNs());
+        categoryProperty.set(snapshot.category());
+        callSignProperty.set(snapshot.callSign());
+        altitudeProperty.set(snapshot.altitude());
+        if (!Objects.equals(getPosition(), snapshot.position())) positionProperty.set(snapshot.position());
+        velocityProperty.set(snapshot.velocity());
+        trackOrHeadingProperty.set(snapshot.trackOrHeading());
+
+        AirbornePos replacedLastPoint = update.replacedLastPoint();
+        if (replacedLastPoint != null && trajectory.size() > 0) {
+            trajectory.replaceLast(replacedLastPoint.position(), replacedLastPoint.altitude(),
+                    (long) replacedLastPoint.timeStampNs());
+        }
+        for (AirbornePos point : update.newTrajectoryPoints()) {
+            trajectory.add(point.position(), point.altitude(), (long) point.timeStampNs());
+        }
+        trajectoryVersionProperty.set(trajectory.version());
+    }
+
+    /**
+     * Returns the trajectory of the aircraft, which must not be modified, and is only read on the JavaFX thread
+     *
+     * @return the trajectory of the aircraft
+     */
+    public Trajectory trajectory() {
+        return trajectory;
+    }
+
+    /**
+     * Returns the read-only property that represents the version of the trajectory, which changes every time the
+     * trajectory is modified
      *
-     * @return an unmodifiable observable list containing the aircraft trajectory
+     * @return the read-only property that represents the version of the trajectory
      */
-    public ObservableList<AirbornePos> trajectory() {
-        return unmodifiablePositions;
+    public ReadOnlyLongProperty trajectoryVersionProperty() {
+        return trajectoryVersionProperty;
     }
 
     /**
      * Record that has the position, altitude and timestamps of the aircraft. This allows us to get these attributes.
+     * It is only used to transfer trajectory points between threads, the trajectory itself being stored in primitive
+     * arrays.
      *
      * @param position    (GeoPos) : aircraft position
      * @param altitude    (double) : aircraft altitude
@@ -0,0 +1,868 @@
+package ch.epfl.javions.gui;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Disk store of the encoded images of the tiles, kept in a single append-only data file and indexed by tile ID.
+ * <p>
+ * Every tile is appended to the data file as a record made of its ID, its lengths, its metadata (telling when it
+ * must be revalidated with its server) and its bytes. When only the metadata of a tile changes, after a revalidation,
+ * the new metadata is only kept in the index. A tile that is replaced or removed leaves its old record in the
+ * data file, until the live records are copied to a new data file by a compaction. The index, mapping every tile ID
+ * to the position of its record, is kept in memory and saved, sorted by tile ID, in an index file, together with the
+ * length of the data file it covers. When the store is opened, the index file is read and the records appended after
+ * the part of the data file it covers are indexed again, an incomplete last record (after a crash) being discarded.
+ * <p>
+ * A compaction never replaces the data file, which may still be mapped : it writes a data file of the next generation,
+ * named after its number, and the previous one is deleted once it can be. The store uses the data file of the last
+ * generation, and the index file is only read if it belongs to this generation.
+ * <p>
+ * The store keeps an approximate order of the last accesses to the tiles, so that the least recently used ones can be
+ * evicted. Every access is not recorded : the reads of the store and a sample of the reads of the images already
+ * decoded are added to a bounded access log, which is only applied to the access times of the tiles in batches, and
+ * is not waited for when it is busy. The access times are saved in the index file. The pinned tiles (the ones
+ * imported from a tile pack) are never evicted, and their records are counted apart from the other ones.
+ * <p>
+ * The records are read through a memory mapping of the data file. The store can be used from several threads : the
+ * reads run concurrently, the writes are serialized, and a compaction only blocks the other operations while it
+ * replaces the data file.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class PackedTileStore implements Closeable {
+    private static final String DATA_FILE_PREFIX = "tiles.";
+    private static final String DATA_FILE_SUFFIX = ".dat";
+    private static final String INDEX_FILE_NAME = "tiles.idx";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Pattern DATA_FILE = Pattern.compile("tiles\\.(\\d{1,9})\\.dat");
+    // the data files of all the generations, of the versions without generations, and their temporary files
+    private static final Pattern STORE_FILE = Pattern.compile("tiles(\\.\\d{1,9})?\\.dat(\\.tmp)?");
+    private static final int DATA_MAGIC = 0x4A544433; // "JTD3"
+    private static final int INDEX_MAGIC = 0x4A544935; // "JTI5"
+    private static final int DATA_HEADER_BYTES = Integer.BYTES;
+    private static final int RECORD_HEADER_BYTES = 5 * Integer.BYTES;
+    private static final int MAX_TILE_BYTES = 1 << 24;
+    private static final int MAX_METADATA_BYTES = 1 << 12;
+    private static final long MAX_MAPPED_BYTES = Integer.MAX_VALUE;
+    private static final int CHANGES_BETWEEN_INDEX_SAVES = 1 << 8;
+    private static final double MAX_GARBAGE_RATIO = 0.5;
+    private static final long MIN_GARBAGE_FOR_COMPACTION = 16L << 20;
+    private static final int ACCESS_LOG_CAPACITY = 1 << 12;
+    private static final int ACCESS_SAMPLING_PERIOD = 16;
+    // by zoom level, then by x, then by y, so that the neighbouring tiles are close to each other in the files
+    private static final Comparator<TileManager.TileId> TILE_ID_ORDER = Comparator
+            .comparingInt(TileManager.TileId::zoom)
+            .thenComparingInt(TileManager.TileId::x)
+            .thenComparingInt(TileManager.TileId::y);
+    private final Path directory;
+    private final Path indexPath;
+    private final ConcurrentMap<TileManager.TileId, Location> index;
+    private final ReadWriteLock fileLock;
+    private final Object writeLock;
+    private final Object compactionLock;
+    private final ConcurrentMap<TileManager.TileId, Long> accessTimes;
+    private final TileManager.TileId[] accessLog;
+    private final ReentrantLock accessLogLock;
+    private final AtomicLong accessClock;
+    private int accessLogSize;
+    private int generation;
+    private Path dataPath;
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private long dataEnd;
+    private long garbageBytes;
+    private long pinnedBytes;
+    private int changesSinceIndexSave;
+
+    /**
+     * Opens the store located in the given directory, which is created if needed
+     *
+     * @param directory (Path) : directory containing the data and index files of the store
+     * @throws IOException if an input/output error occurs
+     */
+    public PackedTileStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.generation = lastGeneration(directory);
+        this.dataPath = dataPath(generation);
+        this.indexPath = directory.resolve(INDEX_FILE_NAME);
+        this.index = new ConcurrentHashMap<>();
+        this.fileLock = new ReentrantReadWriteLock();
+        this.writeLock = new Object();
+        this.compactionLock = new Object();
+        this.accessTimes = new ConcurrentHashMap<>();
+        this.accessLog = new TileManager.TileId[ACCESS_LOG_CAPACITY];
+        this.accessLogLock = new ReentrantLock();
+        this.accessClock = new AtomicLong();
+        this.channel = FileChannel.open(dataPath, CREATE, READ, WRITE);
+
+        if (channel.size() < DATA_HEADER_BYTES || readInt(channel, 0) != DATA_MAGIC) {
+            // not a data file of this version : the store is a cache, it starts again empty
+            channel.truncate(0);
+            writeFully(channel, ByteBuffer.allocate(DATA_HEADER_BYTES).putInt(DATA_MAGIC).flip(), 0);
+            Files.deleteIfExists(indexPath);
+        }
+        long covered = readIndex();
+        dataEnd = scanRecords(covered);
+        channel.truncate(dataEnd);
+        mapped = map(channel, dataEnd);
+        deleteStaleFiles();
+    }
+
+    /**
+     * Returns the encoded image of the given tile, and records the access to it
+     *
+     * @param tileId (TileId) : tile ID
+     * @return the bytes of the image, or null if the tile is not in the store
+     * @throws IOException if an input/output error occurs
+     */
+    public byte[] get(TileManager.TileId tileId) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            Location location = index.get(tileId);
+            if (location == null) return null;
+            logAccess(tileId);
+
+            byte[] bytes = new byte[location.length()];
+            long start = location.imageOffset();
+            MappedByteBuffer buffer = mapped;
+            if (start + bytes.length > buffer.capacity()) buffer = remap(start + bytes.length);
+            if (start + bytes.length <= buffer.capacity()) {
+                buffer.get((int) start, bytes);
+            } else {
+                readFully(channel, ByteBuffer.wrap(bytes), start);
+            }
+            return bytes;
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata of the given tile
+     *
+     * @param tileId (TileId) : tile ID
+     * @return the metadata of the tile, or null if the tile is not in the store
+     */
+    public Metadata metadata(TileManager.TileId tileId) {
+        Location location = index.get(tileId);
+        return location == null ? null : location.metadata();
+    }
+
+    /**
+     * Records, for a sample of the calls, an access to the given tile that did not need to read the store (because
+     * its image was already decoded), without blocking
+     *
+     * @param tileId (TileId) : tile ID
+     */
+    public void recordAccess(TileManager.TileId tileId) {
+        if (ThreadLocalRandom.current().nextInt(ACCESS_SAMPLING_PERIOD) == 0) logAccess(tileId);
+    }
+
+    /**
+     * Checks if the given tile is in the store
+     *
+     * @param tileId (TileId) : tile ID
+     * @return true if the tile is in the store
+     */
+    public boolean contains(TileManager.TileId tileId) {
+        return index.containsKey(tileId);
+    }
+
+    /**
+     * Appends the encoded image of the given tile and its metadata to the store, replacing the previous ones
+     *
+     * @param tileId   (TileId) : tile ID
+     * @param bytes    (byte[]) : bytes of the image
+     * @param metadata (Metadata) : metadata of the tile
+     * @throws IOException              if an input/output error occurs
+     * @throws IllegalArgumentException if the image is larger than 16 MiB, or its encoded metadata larger than 4 KiB
+     */
+    public void put(TileManager.TileId tileId, byte[] bytes, Metadata metadata) throws IOException {
+        byte[] metadataBytes = metadata.toBytes();
+        if (bytes.length > MAX_TILE_BYTES || metadataBytes.length > MAX_METADATA_BYTES) {
+            throw new IllegalArgumentException();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + metadataBytes.length + bytes.length)
+                .putInt(tileId.zoom()).putInt(tileId.x()).putInt(tileId.y())
+                .putInt(metadataBytes.length).putInt(bytes.length)
+                .put(metadataBytes).put(bytes)
+                .flip();
+
+        fileLock.readLock().lock();
+        try {
+            synchronized (writeLock) {
+                writeFully(channel, record, dataEnd);
+                Location location = new Location(dataEnd, metadataBytes.length, bytes.length, metadata);
+                Location previous = index.put(tileId, location);
+                if (previous != null) {
+                    garbageBytes += previous.recordBytes();
+                    pinnedBytes -= previous.pinnedBytes();
+                }
+                pinnedBytes += location.pinnedBytes();
+                accessTimes.put(tileId, accessClock.incrementAndGet());
+                dataEnd += location.recordBytes();
+                if (++changesSinceIndexSave >= CHANGES_BETWEEN_INDEX_SAVES) saveIndex();
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the metadata of the given tile, without appending a new record to the data file : the new metadata is
+     * only kept in the index, and saved with it. Used when the server answers that the image of the tile did not
+     * change.
+     *
+     * @param tileId   (TileId) : tile ID
+     * @param metadata (Metadata) : new metadata of the tile
+     * @return true if the tile was in the store, false otherwise
+     * @throws IOException if an input/output error occurs while saving the index
+     */
+    public boolean updateMetadata(TileManager.TileId tileId, Metadata metadata) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            synchronized (writeLock) {
+                Location previous = index.get(tileId);
+                if (previous == null) return false;
+                Location location = previous.withMetadata(metadata);
+                index.put(tileId, location);
+                pinnedBytes += location.pinnedBytes() - previous.pinnedBytes();
+                if (++changesSinceIndexSave >= CHANGES_BETWEEN_INDEX_SAVES) saveIndex();
+                return true;
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the least recently used tiles that are not pinned until their records use at most the given number of
+     * bytes, their records being only reclaimed by the next compaction. The tiles accessed or replaced while the
+     * eviction runs are kept.
+     *
+     * @param maxUnpinnedBytes (long) : maximum number of bytes of the live records of the tiles that are not pinned
+     *                         after the eviction
+     * @return number of tiles removed
+     */
+    public int evictLeastRecentlyUsed(long maxUnpinnedBytes) {
+        applyAccessLog(true);
+        if (unpinnedBytes() <= maxUnpinnedBytes) return 0;
+
+        List<Map.Entry<TileManager.TileId, Long>> byAccessTime = new ArrayList<>(accessTimes.entrySet());
+        byAccessTime.sort(Map.Entry.comparingByValue());
+        int evicted = 0;
+        // like the writes, so that an eviction is not lost by a compaction swapping the index at the same time
+        fileLock.readLock().lock();
+        try {
+            for (Map.Entry<TileManager.TileId, Long> e : byAccessTime) {
+                synchronized (writeLock) {
+                    if (dataEnd - DATA_HEADER_BYTES - garbageBytes - pinnedBytes <= maxUnpinnedBytes) break;
+                    Location location = index.get(e.getKey());
+                    if (location == null || location.metadata().pinned()) continue;
+                    if (!accessTimes.remove(e.getKey(), e.getValue())) continue;
+                    index.remove(e.getKey());
+                    garbageBytes += location.recordBytes();
+                    ++evicted;
+                }
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of tiles in the store
+     *
+     * @return number of tiles in the store
+     */
+    public int tileCount() {
+        return index.size();
+    }
+
+    /**
+     * Returns the length of the data file, including the records of the replaced and removed tiles
+     *
+     * @return length of the data file, in bytes
+     */
+    public long fileBytes() {
+        synchronized (writeLock) {
+            return dataEnd;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the records of the tiles in the store
+     *
+     * @return number of bytes of the live records
+     */
+    public long liveBytes() {
+        synchronized (writeLock) {
+            return dataEnd - DATA_HEADER_BYTES - garbageBytes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the records of the pinned tiles in the store
+     *
+     * @return number of bytes of the live records of the pinned tiles
+     */
+    public long pinnedBytes() {
+        synchronized (writeLock) {
+            return pinnedBytes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the records of the tiles in the store that are not pinned, and can be evicted
+     *
+     * @return number of bytes of the live records of the tiles that are not pinned
+     */
+    public long unpinnedBytes() {
+        synchronized (writeLock) {
+            return dataEnd - DATA_HEADER_BYTES - garbageBytes - pinnedBytes;
+        }
+    }
+
+    /**
+     * Checks if the records of the replaced and removed tiles use enough space for a compaction to be worth it
+     *
+     * @return true if the store should be compacted
+     */
+    public boolean needsCompaction() {
+        synchronized (writeLock) {
+            return garbageBytes >= MIN_GARBAGE_FOR_COMPACTION && garbageBytes >= MAX_GARBAGE_RATIO * dataEnd;
+        }
+    }
+
+    /**
+     * Copies the records of the tiles in the store, sorted by tile ID, to a new data file which replaces the current
+     * one. The other operations can run while the records present when the compaction started are copied.
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            compactRecords();
+        }
+    }
+
+    /**
+     * Copies the records of the tiles in the store to a data file of the next generation, which replaces the current
+     * one. The current data file is kept, and used, if anything fails before the replacement.
+     */
+    private void compactRecords() throws IOException {
+        deleteStaleFiles();
+        Map<TileManager.TileId, Location> copied = new TreeMap<>(TILE_ID_ORDER);
+        long copiedEnd;
+        synchronized (writeLock) {
+            copiedEnd = dataEnd;
+            copied.putAll(index);
+        }
+
+        int compactedGeneration = generation + 1;
+        Path compactedPath = dataPath(compactedGeneration);
+        Path temporaryPath = compactedPath.resolveSibling(compactedPath.getFileName() + TEMPORARY_SUFFIX);
+        Path previousPath = dataPath;
+        FileChannel previousChannel = null;
+        FileChannel compacted = FileChannel.open(temporaryPath, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        try {
+            Map<TileManager.TileId, Location> compactedIndex = new HashMap<>();
+            ByteBuffer dataHeader = ByteBuffer.allocate(DATA_HEADER_BYTES).putInt(DATA_MAGIC).flip();
+            long compactedEnd = writeFully(compacted, dataHeader, 0);
+            for (Map.Entry<TileManager.TileId, Location> e : copied.entrySet()) {
+                compactedEnd = copyRecord(e.getKey(), e.getValue(), compacted, compactedEnd, compactedIndex);
+            }
+            compacted.force(false);
+
+            // only the records written during the copy are copied, and the files swapped, while the store is blocked
+            fileLock.writeLock().lock();
+            try {
+                // the records written, replaced or removed, and the metadata updated, during the copy
+                for (Map.Entry<TileManager.TileId, Location> e : index.entrySet()) {
+                    Location location = e.getValue();
+                    if (location.offset() >= copiedEnd) {
+                        compactedEnd = copyRecord(e.getKey(), location, compacted, compactedEnd, compactedIndex);
+                    } else {
+                        compactedIndex.computeIfPresent(e.getKey(), (id, c) -> c.withMetadata(location.metadata()));
+                    }
+                }
+                compactedIndex.keySet().retainAll(index.keySet());
+
+                // the compacted data file gets a name of its own, as a mapped file cannot be replaced on some systems
+                Files.move(temporaryPath, compactedPath, StandardCopyOption.ATOMIC_MOVE);
+                MappedByteBuffer compactedMapping;
+                try {
+                    compactedMapping = map(compacted, compactedEnd);
+                } catch (IOException e) {
+                    // otherwise the next opening would use the compacted data file, without the next records
+                    deleteIfPossible(compactedPath);
+                    throw e;
+                }
+
+                previousChannel = channel;
+                channel = compacted;
+                synchronized (writeLock) {
+                    generation = compactedGeneration;
+                    dataPath = compactedPath;
+                    index.clear();
+                    index.putAll(compactedIndex);
+                    dataEnd = compactedEnd;
+                    long liveBytes = 0;
+                    pinnedBytes = 0;
+                    for (Location location : compactedIndex.values()) {
+                        liveBytes += location.recordBytes();
+                        pinnedBytes += location.pinnedBytes();
+                    }
+                    garbageBytes = dataEnd - DATA_HEADER_BYTES - liveBytes;
+                    mapped = compactedMapping;
+                }
+            } finally {
+                fileLock.writeLock().unlock();
+            }
+        } finally {
+            if (previousChannel == null) {
+                compacted.close();
+                deleteIfPossible(temporaryPath);
+            }
+        }
+
+        try {
+            // also forces the records written during the copy to the disk
+            saveIndex();
+        } finally {
+            previousChannel.close();
+            // the previous data file may still be mapped until its mapping is garbage collected
+            deleteIfPossible(previousPath);
+        }
+    }
+
+    /**
+     * Deletes the data files of the other generations and the temporary files that are left, for example because
+     * they were still mapped when they were replaced
+     */
+    private void deleteStaleFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (STORE_FILE.matcher(file.getFileName().toString()).matches() && !file.equals(dataPath)) {
+                    deleteIfPossible(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the path of the data file of the given generation
+     */
+    private Path dataPath(int generation) {
+        return directory.resolve(DATA_FILE_PREFIX + generation + DATA_FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the last generation of the data files in the given directory, or 0 if there is none
+     */
+    private static int lastGeneration(Path directory) throws IOException {
+        int last = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = DATA_FILE.matcher(file.getFileName().toString());
+                if (matcher.matches() && Files.isRegularFile(file)) {
+                    last = Math.max(last, Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Deletes the given file if it exists and can be deleted, which is not the case of a mapped file on some systems
+     */
+    private static void deleteIfPossible(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // the file is deleted by a later compaction, or the next opening of the store
+        }
+    }
+
+    /**
+     * Saves the index, so that the next opening of the store does not need to read the data file
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    public void saveIndex() throws IOException {
+        applyAccessLog(false);
+        synchronized (writeLock) {
+            List<Map.Entry<TileManager.TileId, Location>> entries = new ArrayList<>(index.entrySet());
+            entries.sort(Map.Entry.comparingByKey(TILE_ID_ORDER));
+
+            Path temporaryPath = indexPath.resolveSibling(INDEX_FILE_NAME + TEMPORARY_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(generation);
+                out.writeLong(dataEnd);
+                out.writeLong(accessClock.get());
+                out.writeInt(entries.size());
+                for (Map.Entry<TileManager.TileId, Location> e : entries) {
+                    TileManager.TileId id = e.getKey();
+                    out.writeInt(id.zoom());
+                    out.writeInt(id.x());
+                    out.writeInt(id.y());
+                    Location location = e.getValue();
+                    out.writeLong(location.offset());
+                    out.writeInt(location.metadataLength());
+                    out.writeInt(location.length());
+                    out.writeLong(accessTimes.getOrDefault(id, 0L));
+                    location.metadata().write(out);
+                }
+            }
+            channel.force(false);
+            Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changesSinceIndexSave = 0;
+        }
+    }
+
+    /**
+     * Saves the index and closes the data file
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            saveIndex();
+            channel.close();
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the index file, if it exists and is valid, and returns the length of the part of the data file it covers
+     */
+    private long readIndex() throws IOException {
+        if (!Files.exists(indexPath)) return DATA_HEADER_BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            long dataSize = channel.size();
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != generation) return DATA_HEADER_BYTES;
+            long covered = in.readLong();
+            long clock = in.readLong();
+            int count = in.readInt();
+            if (covered > dataSize) return DATA_HEADER_BYTES;
+
+            long liveBytes = 0;
+            for (int i = 0; i < count; ++i) {
+                TileManager.TileId id = new TileManager.TileId(in.readInt(), in.readInt(), in.readInt());
+                long offset = in.readLong();
+                int metadataLength = in.readInt();
+                int length = in.readInt();
+                long accessTime = in.readLong();
+                Location location = new Location(offset, metadataLength, length, Metadata.read(in));
+                index.put(id, location);
+                accessTimes.put(id, accessTime);
+                liveBytes += location.recordBytes();
+                pinnedBytes += location.pinnedBytes();
+            }
+            garbageBytes = covered - DATA_HEADER_BYTES - liveBytes;
+            accessClock.set(clock);
+            return covered;
+        } catch (EOFException e) {
+            index.clear();
+            accessTimes.clear();
+            garbageBytes = 0;
+            pinnedBytes = 0;
+            return DATA_HEADER_BYTES;
+        }
+    }
+
+    /**
+     * Adds the given tile to the access log, which is applied first if it is full, unless the log is busy
+     */
+    private void logAccess(TileManager.TileId tileId) {
+        if (!accessLogLock.tryLock()) return;
+        try {
+            if (accessLogSize == accessLog.length) applyAccessLog();
+            accessLog[accessLogSize++] = tileId;
+        } finally {
+            accessLogLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the access log to the access times of the tiles, waiting for the log if it is busy only if asked to
+     */
+    private void applyAccessLog(boolean wait) {
+        if (wait) {
+            accessLogLock.lock();
+        } else if (!accessLogLock.tryLock()) {
+            return;
+        }
+        try {
+            applyAccessLog();
+        } finally {
+            accessLogLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the access log to the access times of the tiles still in the store, and empties it. Must be called
+     * with the lock of the access log held.
+     */
+    private void applyAccessLog() {
+        for (int i = 0; i < accessLogSize; ++i) {
+            TileManager.TileId id = accessLog[i];
+            accessTimes.computeIfPresent(id, (k, time) -> accessClock.incrementAndGet());
+            accessLog[i] = null;
+        }
+        accessLogSize = 0;
+    }
+
+    /**
+     * Indexes the records of the data file starting at the given position, and returns the end of the last complete
+     * record
+     */
+    private long scanRecords(long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        for (; ; ) {
+            if (position + RECORD_HEADER_BYTES > size) return position;
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            TileManager.TileId id = new TileManager.TileId(header.getInt(), header.getInt(), header.getInt());
+            int metadataLength = header.getInt();
+            int length = header.getInt();
+            if (metadataLength < 0 || metadataLength > MAX_METADATA_BYTES || length < 0 || length > MAX_TILE_BYTES
+                    || position + RECORD_HEADER_BYTES + metadataLength + length > size) {
+                return position;
+            }
+            ByteBuffer metadataBytes = ByteBuffer.allocate(metadataLength);
+            readFully(channel, metadataBytes, position + RECORD_HEADER_BYTES);
+            Metadata metadata;
+            try {
+                metadata = Metadata.fromBytes(metadataBytes.array());
+            } catch (IOException e) {
+                return position;
+            }
+
+            Location location = new Location(position, metadataLength, length, metadata);
+            Location previous = index.put(id, location);
+            if (previous != null) {
+                garbageBytes += previous.recordBytes();
+                pinnedBytes -= previous.pinnedBytes();
+            }
+            pinnedBytes += location.pinnedBytes();
+            // the records are in order of writing, which is the best guess of their order of access
+            accessTimes.put(id, accessClock.incrementAndGet());
+            position += location.recordBytes();
+        }
+    }
+
+    /**
+     * Copies the record of the given tile at the given position of the given data file, adds its new location to the
+     * given index, and returns the end of the copied record
+     */
+    private long copyRecord(TileManager.TileId id, Location location, FileChannel target, long position,
+                            Map<TileManager.TileId, Location> targetIndex) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(location.recordBytes());
+        readFully(channel, record, location.offset());
+        record.flip();
+        targetIndex.put(id, new Location(position, location.metadataLength(), location.length(), location.metadata()));
+        return writeFully(target, record, position);
+    }
+
+    /**
+     * Maps the data file again if the given position is beyond its current mapping, and returns the mapping
+     */
+    private MappedByteBuffer remap(long end) throws IOException {
+        synchronized (writeLock) {
+            if (end > mapped.capacity() && mapped.capacity() < MAX_MAPPED_BYTES) mapped = map(channel, dataEnd);
+            return mapped;
+        }
+    }
+
+    /**
+     * Maps the first bytes of the given file, as many as a buffer can hold
+     */
+    private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_MAPPED_BYTES));
+    }
+
+    /**
+     * Reads an integer at the given position of the given file
+     */
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, buffer, position);
+        return buffer.flip().getInt();
+    }
+
+    /**
+     * Fills the given buffer with the bytes of the given file starting at the given position
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer at the given position of the given file, and returns the position
+     * following them
+     */
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) position += channel.write(buffer, position);
+        return position;
+    }
+
+    /**
+     * Location of the record of a tile in the data file
+     *
+     * @param offset         (long) : position of the record in the data file
+     * @param metadataLength (int) : number of bytes of the encoded metadata of the tile
+     * @param length         (int) : number of bytes of the image of the tile
+     * @param metadata       (Metadata) : metadata of the tile
+     */
+    private record Location(long offset, int metadataLength, int length, Metadata metadata) {
+
+        /**
+         * Returns the position of the image of the tile in the data file
+         *
+         * @return position of the image
+         */
+        long imageOffset() {
+            return offset + RECORD_HEADER_BYTES + metadataLength;
+        }
+
+        /**
+         * Returns the number of bytes of the record, including its header
+         *
+         * @return number of bytes of the record
+         */
+        int recordBytes() {
+            return RECORD_HEADER_BYTES + metadataLength + length;
+        }
+
+        /**
+         * Returns the number of bytes of the record if the tile is pinned, and 0 otherwise
+         *
+         * @return number of bytes of the record counted as pinned
+         */
+        int pinnedBytes() {
+            return metadata.pinned() ? recordBytes() : 0;
+        }
+
+        /**
+         * Returns the same location with the given metadata, which may differ from the one written in the record
+         *
+         * @param metadata (Metadata) : metadata of the tile
+         * @return location with the given metadata
+         */
+        Location withMetadata(Metadata metadata) {
+            return new Location(offset, metadataLength, length, metadata);
+        }
+    }
+
+    /**
+     * Metadata of a tile, telling when it must be revalidated with its server and how, and whether it can be evicted
+     *
+     * @param expiryTime   (long) : time after which the tile must be revalidated, in milliseconds since the epoch
+     * @param entityTag    (String) : entity tag of the tile given by its server, or null if there is none
+     * @param lastModified (String) : date of the last modification of the tile given by its server, or null if there
+     *                     is none
+     * @param pinned       (boolean) : true if the tile must never be evicted, false otherwise
+     */
+    public record Metadata(long expiryTime, String entityTag, String lastModified, boolean pinned) {
+
+        /**
+         * Checks if the tile must be revalidated at the given time
+         *
+         * @param time (long) : time, in milliseconds since the epoch
+         * @return true if the tile is expired at the given time
+         */
+        public boolean isExpiredAt(long time) {
+            return time >= expiryTime;
+        }
+
+        /**
+         * Writes the metadata to the given output
+         *
+         * @param out (DataOutput) : output
+         * @throws IOException if an input/output error occurs
+         */
+        void write(DataOutput out) throws IOException {
+            out.writeLong(expiryTime);
+            out.writeUTF(entityTag != null ? entityTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeBoolean(pinned);
+        }
+
+        /**
+         * Reads metadata written by write from the given input
+         *
+         * @param in (DataInput) : input
+         * @return the metadata read
+         * @throws IOException if an input/output error occurs
+         */
+        static Metadata read(DataInput in) throws IOException {
+            long expiryTime = in.readLong();
+            String entityTag = in.readUTF();
+            String lastModified = in.readUTF();
+            boolean pinned = in.readBoolean();
+            return new Metadata(expiryTime, entityTag.isEmpty() ? null : entityTag,
+                    lastModified.isEmpty() ? null : lastModified, pinned);
+        }
+
+        /**
+         * Returns the encoded metadata
+         *
+         * @return bytes of the encoded metadata
+         */
+        byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Decodes the given encoded metadata
+         *
+         * @param bytes (byte[]) : bytes of the encoded metadata
+         * @return the decoded metadata
+         * @throws IOException if the bytes are not encoded metadata
+         */
+        static Metadata fromBytes(byte[] bytes) throws IOException {
+            return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        }
+    }
+
+}
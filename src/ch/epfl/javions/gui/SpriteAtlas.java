@@ -0,0 +1,193 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.Units;
+import javafx.geometry.Bounds;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.SVGPath;
+import javafx.scene.shape.StrokeLineJoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of the aircraft icons rasterized once per color bucket and per rotation bucket, packed in a few large images
+ * (the pages of the atlas).
+ * <p>
+ * An icon is rasterized the first time it is needed with a given color and rotation, and is then only copied from a
+ * rectangle of its page, which avoids tessellating its path again. The rectangles are placed on the pages row by row,
+ * a new page being created when the current one is full. The atlas must only be used on the JavaFX thread.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class SpriteAtlas {
+    /**
+     * Default number of color buckets, spread over the color ramp
+     */
+    public static final int DEFAULT_COLOR_BUCKETS = 64;
+    /**
+     * Default number of rotation buckets, of 5 degrees each
+     */
+    public static final int DEFAULT_ROTATION_BUCKETS = 72;
+    private static final int PAGE_SIZE = 1 << 10;
+    private static final int PADDING = 1;
+    private static final AircraftIcon[] ICONS = AircraftIcon.values();
+    private final int colorBuckets;
+    private final int rotationBuckets;
+    private final Sprite[] sprites;
+    private final List<WritableImage> pages;
+    private final SnapshotParameters snapshotParameters;
+    private int rowX;
+    private int rowY;
+    private int rowHeight;
+    private int spriteCount;
+
+    /**
+     * Creates an empty atlas
+     *
+     * @param colorBuckets    (int) : number of colors of the icons, between 2 and ColorRamp.BUCKET_COUNT
+     * @param rotationBuckets (int) : number of rotations of the icons, at least 1
+     * @throws IllegalArgumentException if the number of color buckets is not between 2 and ColorRamp.BUCKET_COUNT, or
+     *                                  if there is less than 1 rotation bucket
+     */
+    public SpriteAtlas(int colorBuckets, int rotationBuckets) {
+        Preconditions.checkArgument(2 <= colorBuckets && colorBuckets <= ColorRamp.BUCKET_COUNT);
+        Preconditions.checkArgument(rotationBuckets >= 1);
+        this.colorBuckets = colorBuckets;
+        this.rotationBuckets = rotationBuckets;
+        this.sprites = new Sprite[ICONS.length * colorBuckets * rotationBuckets];
+        this.pages = new ArrayList<>();
+        this.snapshotParameters = new SnapshotParameters();
+        snapshotParameters.setFill(Color.TRANSPARENT);
+    }
+
+    /**
+     * Creates an empty atlas with the default number of color and rotation buckets
+     */
+    public SpriteAtlas() {
+        this(DEFAULT_COLOR_BUCKETS, DEFAULT_ROTATION_BUCKETS);
+    }
+
+    /**
+     * Returns the sprite of the given icon, with the color of the bucket of the given altitude and rotated by the
+     * bucket of the given direction if the icon can rotate, which is rasterized if needed
+     *
+     * @param icon           (AircraftIcon) : icon of the aircraft
+     * @param altitude       (double) : altitude of the aircraft, in meters
+     * @param trackOrHeading (double) : direction of the aircraft, in radians
+     * @return the sprite of the icon
+     */
+    public Sprite sprite(AircraftIcon icon, double altitude, double trackOrHeading) {
+        int colorBucket = ColorRamp.bucketAtAltitude(altitude) * colorBuckets / ColorRamp.BUCKET_COUNT;
+        int rotationBucket = icon.canRotate() ? Math.floorMod(
+                (int) Math.rint(trackOrHeading / Units.Angle.TURN * rotationBuckets), rotationBuckets) : 0;
+
+        int index = (icon.ordinal() * colorBuckets + colorBucket) * rotationBuckets + rotationBucket;
+        Sprite sprite = sprites[index];
+        if (sprite == null) {
+            Color color = ColorRamp.PLASMA.atBucket(colorBucket * (ColorRamp.BUCKET_COUNT - 1) / (colorBuckets - 1));
+            sprite = rasterize(icon, color, 360d * rotationBucket / rotationBuckets);
+            sprites[index] = sprite;
+        }
+        return sprite;
+    }
+
+    /**
+     * Returns the number of pages of the atlas
+     *
+     * @return number of pages
+     */
+    public int pageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Returns the number of sprites rasterized so far
+     *
+     * @return number of sprites
+     */
+    public int spriteCount() {
+        return spriteCount;
+    }
+
+    /**
+     * Rasterizes the given icon with the given color and rotation (in degrees), and copies it on the current page
+     */
+    private Sprite rasterize(AircraftIcon icon, Color color, double angle) {
+        SVGPath svg = new SVGPath();
+        svg.setContent(icon.svgPath());
+        svg.setFill(color);
+        svg.setStroke(Color.BLACK);
+        svg.setStrokeLineJoin(StrokeLineJoin.ROUND);
+        svg.setRotate(angle);
+
+        // the icon rotates around the center of its bounds, which stays the center of the rasterized image
+        Bounds bounds = svg.getLayoutBounds();
+        WritableImage image = svg.snapshot(snapshotParameters, null);
+        int width = (int) image.getWidth(), height = (int) image.getHeight();
+
+        if (rowX + width > PAGE_SIZE) {
+            rowX = 0;
+            rowY += rowHeight + PADDING;
+            rowHeight = 0;
+        }
+        if (pages.isEmpty() || rowY + height > PAGE_SIZE) {
+            pages.add(new WritableImage(PAGE_SIZE, PAGE_SIZE));
+            rowX = 0;
+            rowY = 0;
+            rowHeight = 0;
+        }
+
+        WritableImage page = pages.get(pages.size() - 1);
+        page.getPixelWriter().setPixels(rowX, rowY, width, height, image.getPixelReader(), 0, 0);
+        Sprite sprite = new Sprite(page, rowX, rowY, width, height, bounds.getCenterX(), bounds.getCenterY());
+        rowX += width + PADDING;
+        rowHeight = Math.max(rowHeight, height);
+        ++spriteCount;
+        return sprite;
+    }
+
+    /**
+     * Rasterized icon, stored in a rectangle of a page of the atlas
+     *
+     * @param page    (WritableImage) : page containing the sprite
+     * @param x       (int) : x coordinate of the rectangle of the sprite on its page
+     * @param y       (int) : y coordinate of the rectangle of the sprite on its page
+     * @param width   (int) : width of the rectangle of the sprite
+     * @param height  (int) : height of the rectangle of the sprite
+     * @param centerX (double) : x coordinate of the center of the sprite, relative to the position of the aircraft
+     * @param centerY (double) : y coordinate of the center of the sprite, relative to the position of the aircraft
+     */
+    public record Sprite(WritableImage page, int x, int y, int width, int height, double centerX, double centerY) {
+
+        /**
+         * Draws the sprite for an aircraft at the given position
+         *
+         * @param gc (GraphicsContext) : graphics context on which to draw
+         * @param x  (double) : x coordinate of the aircraft
+         * @param y  (double) : y coordinate of the aircraft
+         */
+        public void draw(GraphicsContext gc, double x, double y) {
+            gc.drawImage(page, this.x, this.y, width, height,
+                    x + centerX - width / 2d, y + centerY - height / 2d, width, height);
+        }
+
+        /**
+         * Checks if the sprite, drawn for an aircraft at the origin, has an opaque pixel at the given point
+         *
+         * @param x (double) : x coordinate of the point, relative to the position of the aircraft
+         * @param y (double) : y coordinate of the point, relative to the position of the aircraft
+         * @return true if the sprite has an opaque pixel at the given point
+         */
+        public boolean contains(double x, double y) {
+            int px = (int) Math.floor(x - centerX + width / 2d), py = (int) Math.floor(y - centerY + height / 2d);
+            if (px < 0 || py < 0 || px >= width || py >= height) return false;
+            return page.getPixelReader().getArgb(this.x + px, this.y + py) >>> 24 != 0;
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import javafx.scene.image.*;
+
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Pool of decoded tile images, whose pixels are copied into the slots of a few large images (the pages of the atlas).
+ * <p>
+ * Every slot holds the pixels of one tile, scaled to the size of a tile if needed, so that the images decoded from the
+ * tile server or from the disk cache can be dropped right after being copied. The pages are created when their slots
+ * are first needed, up to the capacity of the atlas, and the slots that are released are reused for the next tiles.
+ * <p>
+ * The atlas can be used from any thread : the tiles are stored and released under a lock, while their pixels are read
+ * optimistically, a read being only done again under the lock if a tile was stored at the same time. A tile whose slot
+ * was released and reused can no longer be read.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TileAtlas {
+    private static final int TILE_SIZE = TileManager.TileId.TILE_SIZE;
+    private static final int PAGE_SIZE = 1 << 11;
+    private static final int TILES_PER_ROW = PAGE_SIZE / TILE_SIZE;
+    private static final int TILES_PER_PAGE = TILES_PER_ROW * TILES_PER_ROW;
+    private static final WritablePixelFormat<IntBuffer> PIXEL_FORMAT = PixelFormat.getIntArgbPreInstance();
+    private final int capacity;
+    private final List<WritableImage> pages;
+    private final Tile[] owners;
+    private final Deque<Integer> freeSlots;
+    private final StampedLock lock;
+    private final int[] scaledPixels;
+    private int usedSlots;
+
+    /**
+     * Creates an empty atlas
+     *
+     * @param capacity (int) : maximum number of tiles in the atlas, strictly positive
+     * @throws IllegalArgumentException if the capacity is not strictly positive
+     */
+    public TileAtlas(int capacity) {
+        Preconditions.checkArgument(capacity > 0);
+        this.capacity = capacity;
+        this.pages = new ArrayList<>();
+        this.owners = new Tile[capacity];
+        this.freeSlots = new ArrayDeque<>();
+        this.lock = new StampedLock();
+        this.scaledPixels = new int[TILE_SIZE * TILE_SIZE];
+    }
+
+    /**
+     * Returns the maximum number of tiles in the atlas
+     *
+     * @return maximum number of tiles
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of pages of the atlas
+     *
+     * @return number of pages
+     */
+    public int pageCount() {
+        long stamp = lock.readLock();
+        try {
+            return pages.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the pixels of the given image of the given tile to a free slot of the atlas
+     *
+     * @param tileId (TileId) : tile ID
+     * @param image  (Image) : decoded image of the tile
+     * @return the tile stored in the atlas
+     * @throws IllegalStateException    if the atlas is full
+     * @throws IllegalArgumentException if the image could not be decoded
+     */
+    public Tile store(TileManager.TileId tileId, Image image) {
+        PixelReader reader = image.getPixelReader();
+        Preconditions.checkArgument(reader != null && image.getWidth() >= 1 && image.getHeight() >= 1);
+
+        long stamp = lock.writeLock();
+        try {
+            int slot;
+            if (!freeSlots.isEmpty()) {
+                slot = freeSlots.pop();
+            } else if (usedSlots < capacity) {
+                slot = usedSlots++;
+                if (slot / TILES_PER_PAGE == pages.size()) pages.add(new WritableImage(PAGE_SIZE, PAGE_SIZE));
+            } else {
+                throw new IllegalStateException("The tile atlas is full");
+            }
+
+            Tile tile = new Tile(tileId, slot);
+            PixelWriter writer = tile.page.getPixelWriter();
+            int width = (int) image.getWidth(), height = (int) image.getHeight();
+            if (width == TILE_SIZE && height == TILE_SIZE) {
+                writer.setPixels(tile.x, tile.y, TILE_SIZE, TILE_SIZE, reader, 0, 0);
+            } else {
+                // the image of a server using another tile size is scaled using the nearest pixel
+                for (int y = 0; y < TILE_SIZE; ++y) {
+                    for (int x = 0; x < TILE_SIZE; ++x) {
+                        scaledPixels[y * TILE_SIZE + x] =
+                                reader.getArgb(x * width / TILE_SIZE, y * height / TILE_SIZE);
+                    }
+                }
+                writer.setPixels(tile.x, tile.y, TILE_SIZE, TILE_SIZE, PixelFormat.getIntArgbInstance(),
+                        scaledPixels, 0, TILE_SIZE);
+            }
+            owners[slot] = tile;
+            return tile;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Releases the slot of the given tile, which can no longer be read
+     *
+     * @param tile (Tile) : tile stored in the atlas
+     */
+    public void release(Tile tile) {
+        long stamp = lock.writeLock();
+        try {
+            if (owners[tile.slot] != tile) return;
+            owners[tile.slot] = null;
+            freeSlots.push(tile.slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tile stored in a slot of the atlas
+     */
+    public final class Tile {
+        private final TileManager.TileId tileId;
+        private final int slot;
+        private final WritableImage page;
+        private final int x;
+        private final int y;
+
+        /**
+         * Creates the tile stored in the given slot, whose page must exist
+         *
+         * @param tileId (TileId) : tile ID
+         * @param slot   (int) : index of the slot
+         */
+        private Tile(TileManager.TileId tileId, int slot) {
+            this.tileId = tileId;
+            this.slot = slot;
+            this.page = pages.get(slot / TILES_PER_PAGE);
+            this.x = (slot % TILES_PER_ROW) * TILE_SIZE;
+            this.y = (slot % TILES_PER_PAGE / TILES_PER_ROW) * TILE_SIZE;
+        }
+
+        /**
+         * Returns the ID of the tile
+         *
+         * @return tile ID
+         */
+        public TileManager.TileId tileId() {
+            return tileId;
+        }
+
+        /**
+         * Copies the pixels of the given rectangle of the tile to the given array, as premultiplied ARGB integers,
+         * unless the slot of the tile was released
+         *
+         * @param x              (int) : x coordinate of the rectangle in the tile
+         * @param y              (int) : y coordinate of the rectangle in the tile
+         * @param width          (int) : width of the rectangle
+         * @param height         (int) : height of the rectangle
+         * @param buffer         (int[]) : array receiving the pixels
+         * @param offset         (int) : index of the first pixel in the array
+         * @param scanlineStride (int) : distance between the indices of the pixels of two consecutive rows
+         * @return true if the pixels were copied, false if the slot of the tile was released
+         * @throws IndexOutOfBoundsException if the rectangle is not inside the tile
+         */
+        public boolean readPixels(int x, int y, int width, int height, int[] buffer, int offset,
+                                  int scanlineStride) {
+            if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > TILE_SIZE || y + height > TILE_SIZE) {
+                throw new IndexOutOfBoundsException();
+            }
+            PixelReader reader = page.getPixelReader();
+            long stamp = lock.tryOptimisticRead();
+            if (owners[slot] != this) return false;
+            reader.getPixels(this.x + x, this.y + y, width, height, PIXEL_FORMAT, buffer, offset, scanlineStride);
+            if (lock.validate(stamp)) return true;
+
+            // a tile was stored during the copy, maybe in this slot
+            stamp = lock.readLock();
+            try {
+                if (owners[slot] != this) return false;
+                reader.getPixels(this.x + x, this.y + y, width, height, PIXEL_FORMAT, buffer, offset,
+                        scanlineStride);
+                return true;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+}
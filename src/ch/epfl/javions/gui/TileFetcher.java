@@ -0,0 +1,227 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches the images of the tiles from a tile server, whose tiles are at zoom/x/y.png relative to a base URI.
+ * <p>
+ * The requests are sent by a single HTTP client, which reuses its connections and uses HTTP/2 when the server supports
+ * it. At most a given number of requests are in flight at the same time, the other ones waiting for their turn, and
+ * the concurrent fetches of the same tile share a single request. A tile that is already cached is revalidated with a
+ * conditional request (using its entity tag or the date of its last modification), to which the server answers
+ * without sending the image again if it did not change. Can be used from any thread.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TileFetcher {
+    /**
+     * Default maximum number of requests in flight at the same time
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+    private static final String USER_AGENT = "Javions";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    // how long a tile is fresh when its server does not tell
+    private static final Duration DEFAULT_MAX_AGE = Duration.ofDays(7);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private final URI baseUri;
+    private final HttpClient client;
+    private final Semaphore inFlightRequests;
+    private final ConcurrentMap<TileManager.TileId, CompletableFuture<Response>> pendingFetches;
+
+    /**
+     * Creates a fetcher for the tile server at the given base URI
+     *
+     * @param baseUri               (URI) : base URI of the tile server, ending with a slash
+     * @param maxConcurrentRequests (int) : maximum number of requests in flight at the same time, strictly positive
+     * @throws IllegalArgumentException if the base URI does not end with a slash, or if the maximum number of requests
+     *                                  is not strictly positive
+     */
+    public TileFetcher(URI baseUri, int maxConcurrentRequests) {
+        Preconditions.checkArgument(baseUri.getPath().endsWith("/"));
+        Preconditions.checkArgument(maxConcurrentRequests > 0);
+        this.baseUri = baseUri;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.inFlightRequests = new Semaphore(maxConcurrentRequests);
+        this.pendingFetches = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a fetcher for the tile server at the given base URI, with the default maximum number of requests
+     *
+     * @param baseUri (URI) : base URI of the tile server, ending with a slash
+     * @throws IllegalArgumentException if the base URI does not end with a slash
+     */
+    public TileFetcher(URI baseUri) {
+        this(baseUri, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Fetches the image of the given tile, or revalidates it if it is already cached, waiting for the response
+     *
+     * @param tileId (TileId) : tile ID
+     * @param cached (Metadata) : metadata of the cached image of the tile, or null if it is not cached
+     * @return the response of the server
+     * @throws IOException if the request failed, or if the server did not answer with the image or with the fact
+     *                     that the cached image did not change
+     */
+    public Response fetch(TileManager.TileId tileId, PackedTileStore.Metadata cached) throws IOException {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        CompletableFuture<Response> pending = pendingFetches.putIfAbsent(tileId, future);
+        if (pending != null) return await(pending);
+
+        try {
+            future.complete(send(tileId, cached));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            pendingFetches.remove(tileId, future);
+        }
+        return await(future);
+    }
+
+    /**
+     * Returns the URI of the image of the given tile
+     *
+     * @param tileId (TileId) : tile ID
+     * @return URI of the image of the tile
+     */
+    public URI uriOf(TileManager.TileId tileId) {
+        return baseUri.resolve(tileId.zoom() + "/" + tileId.x() + "/" + tileId.y() + ".png");
+    }
+
+    /**
+     * Sends the request for the given tile once a request can be in flight, and waits for its response
+     */
+    private Response send(TileManager.TileId tileId, PackedTileStore.Metadata cached) throws IOException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uriOf(tileId))
+                .timeout(REQUEST_TIMEOUT)
+                .header("User-Agent", USER_AGENT);
+        if (cached != null && cached.entityTag() != null) request.header("If-None-Match", cached.entityTag());
+        if (cached != null && cached.lastModified() != null) {
+            request.header("If-Modified-Since", cached.lastModified());
+        }
+
+        HttpResponse<byte[]> response;
+        try {
+            inFlightRequests.acquire();
+            try {
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            } finally {
+                inFlightRequests.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        long now = System.currentTimeMillis();
+        HttpHeaders headers = response.headers();
+        return switch (response.statusCode()) {
+            case HTTP_OK -> new Response(response.body(), new PackedTileStore.Metadata(
+                    expiryTime(headers, now),
+                    headers.firstValue("ETag").orElse(null),
+                    headers.firstValue("Last-Modified").orElse(null),
+                    false));
+            // the server may omit the validators that did not change
+            case HTTP_NOT_MODIFIED -> new Response(null, new PackedTileStore.Metadata(
+                    expiryTime(headers, now),
+                    headers.firstValue("ETag").orElse(cached != null ? cached.entityTag() : null),
+                    headers.firstValue("Last-Modified").orElse(cached != null ? cached.lastModified() : null),
+                    false));
+            default -> throw new IOException("Unexpected status " + response.statusCode() + " for " + response.uri());
+        };
+    }
+
+    /**
+     * Returns the time after which a response with the given headers, received at the given time, must be
+     * revalidated, given by its Cache-Control or Expires header
+     */
+    private static long expiryTime(HttpHeaders headers, long now) {
+        Optional<String> cacheControl = headers.firstValue("Cache-Control");
+        if (cacheControl.isPresent()) {
+            Matcher matcher = MAX_AGE.matcher(cacheControl.get());
+            if (matcher.find()) {
+                try {
+                    return now + Duration.ofSeconds(Long.parseLong(matcher.group(1))).toMillis();
+                } catch (NumberFormatException | ArithmeticException e) {
+                    return Long.MAX_VALUE;
+                }
+            }
+        }
+        Optional<String> expires = headers.firstValue("Expires");
+        if (expires.isPresent()) {
+            try {
+                return ZonedDateTime.parse(expires.get(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                // an invalid date means that the response is already expired
+                return now;
+            }
+        }
+        return now + DEFAULT_MAX_AGE.toMillis();
+    }
+
+    /**
+     * Waits for the given fetch, and throws its exception if it failed
+     */
+    private static Response await(CompletableFuture<Response> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) throw ioException;
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Response of a tile server
+     *
+     * @param bytes    (byte[]) : bytes of the image of the tile, or null if the cached image did not change
+     * @param metadata (Metadata) : metadata of the image of the tile
+     */
+    public record Response(byte[] bytes, PackedTileStore.Metadata metadata) {
+
+        /**
+         * Checks if the server answered that the cached image did not change
+         *
+         * @return true if the cached image did not change
+         */
+        public boolean notModified() {
+            return bytes == null;
+        }
+    }
+
+}
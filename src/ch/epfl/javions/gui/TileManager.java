@@ -1,96 +1,358 @@
 package ch.epfl.javions.gui;
 
+import ch.epfl.javions.Preconditions;
 import javafx.scene.image.Image;
 
-import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents an open street map (OSM) tile manager. Its role is to get the tiles from a tile server and stores
- * them in a memory cache and in a disk cache.
+ * them in a memory cache and in a disk cache. The tiles of the disk cache are revalidated with the tile server once
+ * they are expired.
+ * <p>
+ * The disk cache is a packed tile store, keeping the tiles in a single data file, whose size is limited by a quota.
+ * When the data file exceeds its quota, or when too much of it is taken by replaced tiles, the least recently used
+ * tiles are evicted and the data file is compacted by a low priority background thread, the loads of the tiles never
+ * waiting for it. The tiles imported from a tile pack are pinned in the disk cache : they are never evicted, and
+ * their records are not counted in the quota.
+ * <p>
+ * The tiles can be loaded either synchronously, or asynchronously on a small pool of background threads, in which
+ * case several requests for the same tile share a single download and decoding. The asynchronous loads are done in
+ * order of priority : the tiles that are visible are loaded before the ones that are only prefetched, and a prefetch
+ * that has not started yet can be cancelled. The memory cache can be read from any thread.
  *
  * @author Leon Petrinos (357588)
  * @author Andrea Trugenberger (357615)
  */
-public final class TileManager {
-    private static final int MEMORY_CACHE_MAX_SIZE = 100;
-    private final LinkedHashMap<TileId, Image> memoryCache;
-    private final Path pathToDiskCache;
-    private final String tileServerName;
+public final class TileManager implements Closeable {
+    /**
+     * Default quota of the disk cache, in bytes
+     */
+    public static final long DEFAULT_DISK_CACHE_QUOTA_BYTES = 1L << 30;
+    private static final int LOADER_THREAD_COUNT = 4;
+    // proportion of the quota left used after an eviction, so that the next one is not needed right away
+    private static final double EVICTION_TARGET_RATIO = 0.8;
+    private final TileMemoryCache memoryCache;
+    private final PackedTileStore diskCache;
+    private final long diskCacheQuota;
+    private final TileFetcher fetcher;
+    private final ThreadPoolExecutor loader;
+    private final ExecutorService maintainer;
+    private final AtomicBoolean maintenanceScheduled;
+    private final ConcurrentMap<TileId, LoadTask> pendingTiles;
+    private final AtomicLong loadSequence;
 
     /**
-     * Creates a Tile Manager and initializes the memory cache to a LinkedHashMap.
+     * Creates a Tile Manager whose memory cache has the given capacity and whose disk cache has the given quota
+     *
+     * @param pathToCacheDisk     (Path) : Path to the folder that is the cache disk
+     * @param fetcher             (TileFetcher) : fetcher of the tiles from their server
+     * @param memoryCacheCapacity (long) : capacity of the memory cache, in bytes of decoded images
+     * @param diskCacheQuota      (long) : maximum size of the data file of the disk cache, in bytes, strictly positive
+     * @throws IOException              if the disk cache could not be opened
+     * @throws IllegalArgumentException if the quota of the disk cache is not strictly positive
+     */
+    public TileManager(Path pathToCacheDisk, TileFetcher fetcher, long memoryCacheCapacity, long diskCacheQuota)
+            throws IOException {
+        Preconditions.checkArgument(diskCacheQuota > 0);
+        Files.createDirectories(pathToCacheDisk);
+        this.memoryCache = new TileMemoryCache(memoryCacheCapacity);
+        this.diskCache = new PackedTileStore(pathToCacheDisk);
+        this.diskCacheQuota = diskCacheQuota;
+        this.fetcher = fetcher;
+        this.loader = new ThreadPoolExecutor(LOADER_THREAD_COUNT, LOADER_THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), daemonThreadFactory("tile-loader", Thread.NORM_PRIORITY));
+        this.maintainer = Executors.newSingleThreadExecutor(
+                daemonThreadFactory("tile-cache-maintainer", Thread.MIN_PRIORITY));
+        this.maintenanceScheduled = new AtomicBoolean();
+        this.pendingTiles = new ConcurrentHashMap<>();
+        this.loadSequence = new AtomicLong();
+        // the quota may have been lowered since the last use of the disk cache
+        scheduleMaintenanceIfNeeded();
+    }
+
+    /**
+     * Creates a Tile Manager getting the tiles from the given server over HTTPS, whose memory cache has the default
+     * capacity and whose disk cache has the default quota
      *
      * @param pathToCacheDisk (Path) : Path to the folder that is the cache disk
      * @param tileServerName  (String) : Name of server from which we obtain the tiles
+     * @throws IOException if the disk cache could not be opened
      */
-    public TileManager(Path pathToCacheDisk, String tileServerName) {
-        this.memoryCache = new LinkedHashMap<>(MEMORY_CACHE_MAX_SIZE, 0.75f, true);
-        this.pathToDiskCache = pathToCacheDisk;
-        this.tileServerName = tileServerName;
+    public TileManager(Path pathToCacheDisk, String tileServerName) throws IOException {
+        this(pathToCacheDisk, new TileFetcher(URI.create("https://" + tileServerName + "/")),
+                TileMemoryCache.DEFAULT_CAPACITY_BYTES, DEFAULT_DISK_CACHE_QUOTA_BYTES);
     }
 
     /**
-     * Returns the image corresponding to the given tile ID
+     * Returns the image corresponding to the given tile ID, stored in the tile atlas of the memory cache, which is
+     * revalidated with the tile server if its image in the disk cache is expired
      *
      * @param tileId (TileId) : tile ID
      * @return image corresponding to the given tile ID
+     * @throws IOException if an input/output error occurs, or if the image could not be decoded
+     */
+    public TileAtlas.Tile imageForTileAt(TileId tileId) throws IOException {
+        TileAtlas.Tile cached = cachedImageForTileAt(tileId);
+        if (cached != null) return cached;
+
+        byte[] bytes = diskCache.get(tileId);
+        PackedTileStore.Metadata metadata = diskCache.metadata(tileId);
+        if (bytes == null || metadata == null) return getImageFromServer(tileId, null);
+        if (!metadata.isExpiredAt(System.currentTimeMillis())) return getImageFromBytes(bytes, tileId);
+
+        try {
+            return getImageFromServer(tileId, metadata);
+        } catch (IOException e) {
+            // an expired image is better than no image, when the server cannot be reached
+            return getImageFromBytes(bytes, tileId);
+        }
+    }
+
+    /**
+     * Returns the image corresponding to the given tile ID if it is in the memory cache, without blocking
+     *
+     * @param tileId (TileId) : tile ID
+     * @return image corresponding to the given tile ID, or null if it is not in the memory cache
+     */
+    public TileAtlas.Tile cachedImageForTileAt(TileId tileId) {
+        TileAtlas.Tile image = memoryCache.get(tileId);
+        // the tiles shown from the memory cache must not become the least recently used ones of the disk cache
+        if (image != null) diskCache.recordAccess(tileId);
+        return image;
+    }
+
+    /**
+     * Returns the statistics of the memory cache
+     *
+     * @return statistics of the memory cache
+     */
+    public TileMemoryCache.Statistics memoryCacheStatistics() {
+        return memoryCache.statistics();
+    }
+
+    /**
+     * Loads the image corresponding to a visible tile on a background thread, before the prefetched tiles, unless it
+     * is in the memory cache or already being loaded
+     *
+     * @param tileId (TileId) : tile ID
+     * @return future completed with the image corresponding to the given tile ID, or exceptionally if it could not
+     * be loaded
+     */
+    public CompletableFuture<TileAtlas.Tile> loadImageForTileAt(TileId tileId) {
+        return load(tileId, Priority.VISIBLE);
+    }
+
+    /**
+     * Loads the image corresponding to a tile that will probably be visible soon on a background thread, after the
+     * visible tiles, unless it is in the memory cache or already being loaded
+     *
+     * @param tileId (TileId) : tile ID
+     * @return future completed with the image corresponding to the given tile ID, or exceptionally if it could not
+     * be loaded or if the prefetch was cancelled
+     */
+    public CompletableFuture<TileAtlas.Tile> prefetchImageForTileAt(TileId tileId) {
+        return load(tileId, Priority.PREFETCH);
+    }
+
+    /**
+     * Cancels the prefetch of the given tile, if it has not started yet and no visible tile request joined it
+     *
+     * @param tileId (TileId) : tile ID
+     */
+    public void cancelPrefetch(TileId tileId) {
+        LoadTask task = pendingTiles.get(tileId);
+        if (task != null && task.priority == Priority.PREFETCH && loader.remove(task)) {
+            pendingTiles.remove(tileId, task);
+            task.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the background loads that have not started yet, and closes the disk cache after the end of the loads
+     * and of the maintenance in progress. The threads are not interrupted, as an interruption during an input/output
+     * operation on the disk cache would close its data file.
+     *
      * @throws IOException if an input/output error occurs
      */
-    public Image imageForTileAt(TileId tileId) throws IOException {
-        if (memoryCache.containsKey(tileId)) {
-            return memoryCache.get(tileId); // automatically moved to the most recent entry of the LinkedHasMap
+    @Override
+    public void close() throws IOException {
+        loader.shutdown();
+        maintainer.shutdown();
+        List<Runnable> waiting = new ArrayList<>();
+        loader.getQueue().drainTo(waiting);
+        for (Runnable runnable : waiting) {
+            LoadTask task = (LoadTask) runnable;
+            pendingTiles.remove(task.tileId, task);
+            task.future.cancel(false);
+        }
+        try {
+            loader.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            maintainer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        diskCache.close();
+    }
 
-        Path imgPath = tileId.createPath(pathToDiskCache);
-        return (Files.exists(imgPath)) ?
-                getImageFromFile(imgPath, tileId) :
-                getImageFromUrl(imgPath, tileId);
+    /**
+     * Loads the image corresponding to the given tile ID on a background thread with the given priority, or raises
+     * the priority of the load already waiting for it
+     */
+    private CompletableFuture<TileAtlas.Tile> load(TileId tileId, Priority priority) {
+        TileAtlas.Tile cached = cachedImageForTileAt(tileId);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        LoadTask task = new LoadTask(tileId, priority, loadSequence.getAndIncrement());
+        LoadTask pending = pendingTiles.putIfAbsent(tileId, task);
+        if (pending == null) {
+            loader.execute(task);
+            return task.future;
+        }
+
+        // the queue does not reorder its elements, a waiting load must be queued again to take its new priority
+        if (priority.compareTo(pending.priority) < 0 && loader.remove(pending)) {
+            pending.priority = priority;
+            loader.execute(pending);
+        }
+        return pending.future;
     }
 
     /**
-     * Returns the image coming from a URL
+     * Returns the image coming from the tile server, or from the disk cache if the server answers that its image,
+     * with the given metadata, did not change. The disk cache is updated with the response, only the metadata of the
+     * tile being replaced in the latter case.
      */
-    private Image getImageFromUrl(Path imgPath, TileId tileId) throws IOException {
-        Files.createDirectories(imgPath.getParent());
-        URL tileUrl = new URL(
-                "https", tileServerName, "/" + tileId.zoom + "/" + tileId.x + "/" + tileId.y + ".png");
-        URLConnection urlConnection = tileUrl.openConnection();
-        urlConnection.setRequestProperty("User-Agent", "Javions");
+    private TileAtlas.Tile getImageFromServer(TileId tileId, PackedTileStore.Metadata cached) throws IOException {
+        TileFetcher.Response response = fetcher.fetch(tileId, cached);
+        byte[] bytes = response.notModified() ? diskCache.get(tileId) : response.bytes();
+        if (bytes == null) throw new IOException("Tile " + tileId + " not modified but no longer cached");
 
-        try (InputStream in = urlConnection.getInputStream();
-             OutputStream out = new FileOutputStream(imgPath.toFile())) {
-            byte[] bytes = in.readAllBytes();
-            out.write(bytes);
-            Image img = new Image(new ByteArrayInputStream(bytes));
-            addImageToCache(tileId, img);
-            return img;
+        TileAtlas.Tile image = getImageFromBytes(bytes, tileId);
+        // the tile may have been evicted since it was read
+        if (!response.notModified() || !diskCache.updateMetadata(tileId, response.metadata())) {
+            diskCache.put(tileId, bytes, response.metadata());
         }
+        scheduleMaintenanceIfNeeded();
+        return image;
+    }
+
+    /**
+     * Returns the image decoded from the given bytes, once copied to the memory cache
+     */
+    private TileAtlas.Tile getImageFromBytes(byte[] bytes, TileId tileId) throws IOException {
+        Image img = new Image(new ByteArrayInputStream(bytes));
+        if (img.isError()) throw new IOException("Invalid image for tile " + tileId, img.getException());
+        return memoryCache.put(tileId, img);
     }
 
     /**
-     * Returns the image coming from a file
+     * Schedules the maintenance of the disk cache on the background thread, if its data file exceeds its quota or
+     * needs a compaction, and no maintenance is scheduled yet
      */
-    private Image getImageFromFile(Path imgPath, TileId tileId) throws IOException {
-        try (InputStream in = new FileInputStream(imgPath.toFile())) {
-            Image img = new Image(in);
-            addImageToCache(tileId, img);
-            return img;
+    private void scheduleMaintenanceIfNeeded() {
+        if (quotaBytes() <= diskCacheQuota && !diskCache.needsCompaction()) return;
+        if (!maintenanceScheduled.compareAndSet(false, true)) return;
+        try {
+            maintainer.execute(() -> {
+                try {
+                    maintainDiskCache();
+                } catch (IOException e) {
+                    // the tiles stay in the current data file, the maintenance is tried again after the next download
+                } finally {
+                    maintenanceScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            maintenanceScheduled.set(false);
         }
     }
 
     /**
-     * Adds a new image to the cache memory
+     * Evicts the least recently used tiles of the disk cache if they exceed its quota, and compacts its data file if
+     * it still exceeds its quota or contains too many replaced tiles
      */
-    private void addImageToCache(TileId id, Image image) {
-        if (memoryCache.size() == MEMORY_CACHE_MAX_SIZE) {
-            memoryCache.remove(memoryCache.keySet().iterator().next());
+    private void maintainDiskCache() throws IOException {
+        if (diskCache.unpinnedBytes() > diskCacheQuota) {
+            diskCache.evictLeastRecentlyUsed((long) (diskCacheQuota * EVICTION_TARGET_RATIO));
+        }
+        if (quotaBytes() > diskCacheQuota || diskCache.needsCompaction()) diskCache.compact();
+    }
+
+    /**
+     * Returns the number of bytes of the data file of the disk cache counted in its quota, i.e. all of them but the
+     * records of the pinned tiles
+     */
+    private long quotaBytes() {
+        return diskCache.fileBytes() - diskCache.pinnedBytes();
+    }
+
+    /**
+     * Returns a factory of daemon threads with the given name and priority
+     */
+    private static ThreadFactory daemonThreadFactory(String name, int priority) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+
+    /**
+     * Priority of an asynchronous load, the first ones being loaded first
+     */
+    private enum Priority {VISIBLE, PREFETCH}
+
+    /**
+     * Asynchronous load of a tile, ordered by priority and then by order of request
+     */
+    private final class LoadTask implements Runnable, Comparable<LoadTask> {
+        private final TileId tileId;
+        private final long sequence;
+        private final CompletableFuture<TileAtlas.Tile> future;
+        private volatile Priority priority;
+
+        /**
+         * Creates the load of the given tile
+         *
+         * @param tileId   (TileId) : tile ID
+         * @param priority (Priority) : priority of the load
+         * @param sequence (long) : number of the request, to load the tiles of same priority in order of request
+         */
+        private LoadTask(TileId tileId, Priority priority, long sequence) {
+            this.tileId = tileId;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.future = new CompletableFuture<>();
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(imageForTileAt(tileId));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                pendingTiles.remove(tileId, this);
+            }
+        }
+
+        @Override
+        public int compareTo(LoadTask that) {
+            int byPriority = priority.compareTo(that.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, that.sequence);
         }
-        memoryCache.put(id, image);
     }
 
     /**
@@ -120,19 +382,6 @@ public final class TileManager {
             return (0 <= x && x < constant) && (0 <= y && y < constant);
         }
 
-        /**
-         * Creates a path dependent on zoom, x and y given the cache disk path
-         *
-         * @param cacheDiskPath (Path) : path of the cache disk
-         * @return the path of a tileId
-         */
-        private Path createPath(Path cacheDiskPath) {
-            return cacheDiskPath
-                    .resolve(Integer.toString(zoom))
-                    .resolve(Integer.toString(x))
-                    .resolve(y + ".png");
-        }
-
     }
 
 
@@ -0,0 +1,221 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import javafx.scene.image.Image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Memory cache of decoded tile images, whose capacity is a number of bytes (a tile using 4 bytes per pixel), and which
+ * can be used from any thread.
+ * <p>
+ * The pixels of the images are kept in a tile atlas holding as many tiles as the capacity allows, the decoded images
+ * being dropped once copied. The slot of a tile is released when the tile is evicted, and reused for the next tile.
+ * <p>
+ * The eviction policy is a segmented LRU : a new image enters a probationary segment, and moves to a protected
+ * segment (using at most 80% of the capacity) the first time it is read again. The images evicted are the least
+ * recently used ones of the probationary segment, to which the least recently used images of the protected segment
+ * are demoted when it is full. Images read only once, like the ones of a quick pan, therefore never evict the images
+ * read often.
+ * <p>
+ * Reads never block : the images are looked up in a concurrent map, and the segments are only reordered if their
+ * lock is free, a read being otherwise not taken into account by the policy. Writes take the lock.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TileMemoryCache {
+    /**
+     * Default capacity of the cache, in bytes, which holds about a thousand tiles
+     */
+    public static final long DEFAULT_CAPACITY_BYTES = 256L << 20;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final long TILE_BYTES =
+            (long) TileManager.TileId.TILE_SIZE * TileManager.TileId.TILE_SIZE * BYTES_PER_PIXEL;
+    private final long capacityBytes;
+    private final long protectedCapacityBytes;
+    private final TileAtlas atlas;
+    private final ConcurrentMap<TileManager.TileId, Entry> entries;
+    private final LinkedHashMap<TileManager.TileId, Entry> probation;
+    private final LinkedHashMap<TileManager.TileId, Entry> protectedSegment;
+    private final ReentrantLock lock;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private long probationBytes;
+    private long protectedBytes;
+
+    /**
+     * Creates an empty cache
+     *
+     * @param capacityBytes (long) : maximum number of bytes of the images of the cache, enough for at least one tile
+     * @throws IllegalArgumentException if the capacity is not enough for one tile
+     */
+    public TileMemoryCache(long capacityBytes) {
+        Preconditions.checkArgument(capacityBytes >= TILE_BYTES);
+        this.capacityBytes = capacityBytes / TILE_BYTES * TILE_BYTES;
+        this.protectedCapacityBytes = (long) (this.capacityBytes * PROTECTED_RATIO);
+        this.atlas = new TileAtlas((int) Math.min(capacityBytes / TILE_BYTES, Integer.MAX_VALUE));
+        this.entries = new ConcurrentHashMap<>();
+        this.probation = new LinkedHashMap<>();
+        this.protectedSegment = new LinkedHashMap<>();
+        this.lock = new ReentrantLock();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the given tile, if it is in the cache
+     *
+     * @param tileId (TileId) : tile ID
+     * @return the tile stored in the atlas of the cache, or null if it is not in the cache
+     */
+    public TileAtlas.Tile get(TileManager.TileId tileId) {
+        Entry entry = entries.get(tileId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        if (lock.tryLock()) {
+            try {
+                recordAccess(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry.tile;
+    }
+
+    /**
+     * Copies the pixels of the image of the given tile to the cache, replacing the previous ones, after evicting the
+     * least recently used tiles if the cache is full
+     *
+     * @param tileId (TileId) : tile ID
+     * @param image  (Image) : decoded image of the tile
+     * @return the tile stored in the atlas of the cache
+     * @throws IllegalArgumentException if the image could not be decoded
+     */
+    public TileAtlas.Tile put(TileManager.TileId tileId, Image image) {
+        Preconditions.checkArgument(image.getPixelReader() != null);
+        lock.lock();
+        try {
+            Entry previous = entries.remove(tileId);
+            if (previous != null) evict(previous);
+            while (probationBytes + protectedBytes + TILE_BYTES > capacityBytes) {
+                LinkedHashMap<TileManager.TileId, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+                Entry victim = segment.values().iterator().next();
+                entries.remove(victim.tileId, victim);
+                evict(victim);
+                evictions.increment();
+            }
+
+            Entry entry = new Entry(tileId, atlas.store(tileId, image));
+            entries.put(tileId, entry);
+            probation.put(tileId, entry);
+            probationBytes += TILE_BYTES;
+            return entry.tile;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of images in the cache
+     *
+     * @return number of images in the cache
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the statistics of the cache since its creation
+     *
+     * @return statistics of the cache
+     */
+    public Statistics statistics() {
+        lock.lock();
+        try {
+            return new Statistics(hits.sum(), misses.sum(), evictions.sum(), entries.size(),
+                    probationBytes + protectedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the given entry to the most recently used end of the protected segment, demoting the least recently used
+     * entries of the protected segment if it is full. Must be called with the lock held.
+     */
+    private void recordAccess(Entry entry) {
+        if (protectedSegment.remove(entry.tileId, entry)) {
+            protectedSegment.put(entry.tileId, entry);
+            return;
+        }
+        if (!probation.remove(entry.tileId, entry)) return; // evicted since it was read
+        probationBytes -= TILE_BYTES;
+        protectedSegment.put(entry.tileId, entry);
+        protectedBytes += TILE_BYTES;
+
+        Iterator<Entry> it = protectedSegment.values().iterator();
+        while (protectedBytes > protectedCapacityBytes && protectedSegment.size() > 1) {
+            Entry demoted = it.next();
+            it.remove();
+            protectedBytes -= TILE_BYTES;
+            probation.put(demoted.tileId, demoted);
+            probationBytes += TILE_BYTES;
+        }
+    }
+
+    /**
+     * Removes the given entry from its segment and releases its slot of the atlas. Must be called with the lock held.
+     */
+    private void evict(Entry entry) {
+        if (probation.remove(entry.tileId, entry)) {
+            probationBytes -= TILE_BYTES;
+        } else if (protectedSegment.remove(entry.tileId, entry)) {
+            protectedBytes -= TILE_BYTES;
+        }
+        atlas.release(entry.tile);
+    }
+
+    /**
+     * Tile in the cache
+     *
+     * @param tileId (TileId) : tile ID
+     * @param tile   (Tile) : tile stored in the atlas of the cache
+     */
+    private record Entry(TileManager.TileId tileId, TileAtlas.Tile tile) {
+    }
+
+    /**
+     * Statistics of a cache
+     *
+     * @param hits       (long) : number of reads that found their image
+     * @param misses     (long) : number of reads that did not find their image
+     * @param evictions  (long) : number of images evicted to respect the capacity
+     * @param entryCount (int) : number of images in the cache
+     * @param sizeBytes  (long) : number of bytes of the images in the cache
+     */
+    public record Statistics(long hits, long misses, long evictions, int entryCount, long sizeBytes) {
+
+        /**
+         * Returns the proportion of the reads that found their image
+         *
+         * @return proportion of the reads that found their image, 0 if there was no read
+         */
+        public double hitRate() {
+            long reads = hits + misses;
+            return reads == 0 ? 0 : (double) hits / reads;
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.Units;
+import ch.epfl.javions.WebMercator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Read-only collection of tile images, stored as zoom/x/y.png files either in a directory or in a zip archive (in
+ * which they may also be inside a single top-level directory), as produced by most tile downloading tools.
+ * <p>
+ * A pack can be read from any thread.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TilePack implements Closeable {
+    private static final String TILE_EXTENSION = ".png";
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private final FileSystem archive;
+    private final Path root;
+
+    /**
+     * Creates a pack of the tiles at the given root
+     *
+     * @param archive (FileSystem) : file system of the zip archive of the pack, or null if it is a directory
+     * @param root    (Path) : directory containing the zoom level directories
+     */
+    private TilePack(FileSystem archive, Path root) {
+        this.archive = archive;
+        this.root = root;
+    }
+
+    /**
+     * Opens the pack of tiles that is the given directory or zip archive
+     *
+     * @param path (Path) : directory or zip archive of the pack
+     * @return the pack of tiles
+     * @throws IOException if the directory or archive could not be opened
+     */
+    public static TilePack open(Path path) throws IOException {
+        if (Files.isDirectory(path)) return new TilePack(null, findRoot(path));
+
+        FileSystem archive = FileSystems.newFileSystem(path);
+        try {
+            return new TilePack(archive, findRoot(archive.getRootDirectories().iterator().next()));
+        } catch (IOException | RuntimeException e) {
+            archive.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the IDs of the tiles of the pack in the given zoom levels and intersecting the given area
+     *
+     * @param minZoom (int) : minimum zoom level
+     * @param maxZoom (int) : maximum zoom level
+     * @param area    (Area) : area covered by the tiles
+     * @return IDs of the tiles, by increasing zoom level
+     * @throws IOException if an input/output error occurs
+     */
+    public List<TileManager.TileId> tiles(int minZoom, int maxZoom, Area area) throws IOException {
+        List<TileManager.TileId> tiles = new ArrayList<>();
+        for (int zoom = minZoom; zoom <= maxZoom; ++zoom) {
+            Path zoomDirectory = root.resolve(Integer.toString(zoom));
+            if (!Files.isDirectory(zoomDirectory)) continue;
+            double minX = WebMercator.x(zoom, area.minLongitude()) / TileManager.TileId.TILE_SIZE;
+            double maxX = WebMercator.x(zoom, area.maxLongitude()) / TileManager.TileId.TILE_SIZE;
+            double minY = WebMercator.y(zoom, area.maxLatitude()) / TileManager.TileId.TILE_SIZE;
+            double maxY = WebMercator.y(zoom, area.minLatitude()) / TileManager.TileId.TILE_SIZE;
+
+            for (Path xDirectory : list(zoomDirectory)) {
+                int x = indexOf(xDirectory, "");
+                if (x < 0 || x < Math.floor(minX) || x > Math.floor(maxX)) continue;
+                for (Path tileFile : list(xDirectory)) {
+                    int y = indexOf(tileFile, TILE_EXTENSION);
+                    if (y < 0 || y < Math.floor(minY) || y > Math.floor(maxY)) continue;
+                    if (TileManager.TileId.isValid(zoom, x, y)) tiles.add(new TileManager.TileId(zoom, x, y));
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Returns the image of the given tile, if it is in the pack and is a PNG image
+     *
+     * @param tileId (TileId) : tile ID
+     * @return bytes of the image, or null if the tile is not in the pack or is not a PNG image
+     * @throws IOException if an input/output error occurs
+     */
+    public byte[] read(TileManager.TileId tileId) throws IOException {
+        Path file = root.resolve(Integer.toString(tileId.zoom()))
+                .resolve(Integer.toString(tileId.x()))
+                .resolve(tileId.y() + TILE_EXTENSION);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (bytes.length < PNG_SIGNATURE.length) return null;
+        for (int i = 0; i < PNG_SIGNATURE.length; ++i) {
+            if (bytes[i] != PNG_SIGNATURE[i]) return null;
+        }
+        return bytes;
+    }
+
+    /**
+     * Closes the archive of the pack, if it is one
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (archive != null) archive.close();
+    }
+
+    /**
+     * Returns the given directory, or its only subdirectory if it does not contain zoom level directories
+     */
+    private static Path findRoot(Path directory) throws IOException {
+        List<Path> children = list(directory);
+        if (children.size() == 1 && Files.isDirectory(children.get(0)) && indexOf(children.get(0), "") < 0) {
+            return children.get(0);
+        }
+        return directory;
+    }
+
+    /**
+     * Returns the entries of the given directory
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> entries = Files.list(directory)) {
+            return entries.toList();
+        }
+    }
+
+    /**
+     * Returns the index given by the name of the given file, made of digits followed by the given extension, or -1 if
+     * its name is not of this form
+     */
+    private static int indexOf(Path file, String extension) {
+        String name = file.getFileName().toString();
+        if (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+        if (!name.endsWith(extension)) return -1;
+        String digits = name.substring(0, name.length() - extension.length());
+        if (digits.isEmpty() || digits.length() > 9 || !digits.chars().allMatch(Character::isDigit)) return -1;
+        return Integer.parseInt(digits);
+    }
+
+    /**
+     * Area delimited by two meridians and two parallels
+     *
+     * @param minLongitude (double) : longitude of the west side, in radians
+     * @param minLatitude  (double) : latitude of the south side, in radians
+     * @param maxLongitude (double) : longitude of the east side, in radians
+     * @param maxLatitude  (double) : latitude of the north side, in radians
+     */
+    public record Area(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+        /**
+         * Area covering the whole map
+         */
+        public static final Area WORLD = new Area(
+                Units.convertFrom(-180, Units.Angle.DEGREE), Units.convertFrom(-85.0511, Units.Angle.DEGREE),
+                Units.convertFrom(180, Units.Angle.DEGREE), Units.convertFrom(85.0511, Units.Angle.DEGREE));
+
+        /**
+         * Checks that the sides of the area are in order
+         *
+         * @throws IllegalArgumentException if a minimum is greater than the corresponding maximum
+         */
+        public Area {
+            Preconditions.checkArgument(minLongitude <= maxLongitude && minLatitude <= maxLatitude);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Units;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports the tiles of a pack (a directory or zip archive of zoom/x/y.png files) into the disk cache of the program,
+ * so that the map can be shown without network access. The tiles are read and stored by a fixed number of threads,
+ * taking the next tile to import from the list of tiles in turn. The imported tiles never expire, so that they are not
+ * revalidated with the tile server, and are pinned, so that they are never evicted from the cache whatever its quota.
+ * The program must not run during the import.
+ * <p>
+ * Usage : {@code TilePackImporter <tile pack> <tile cache directory> [--zoom <min>-<max>]
+ * [--bbox <min longitude>,<min latitude>,<max longitude>,<max latitude>] [--threads <count>]}, the longitudes and
+ * latitudes being in degrees
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TilePackImporter {
+    private static final String ZOOM_OPTION = "--zoom";
+    private static final String BOX_OPTION = "--bbox";
+    private static final String THREADS_OPTION = "--threads";
+    private static final String OPTION_PREFIX = "--";
+    private static final String USAGE = "Usage: TilePackImporter <tile pack> <tile cache directory> " +
+            "[--zoom <min>-<max>] [--bbox <min lon>,<min lat>,<max lon>,<max lat>] [--threads <count>]";
+    private static final double SECOND_IN_NS = 1e9;
+
+    private TilePackImporter() {
+    }
+
+    /**
+     * Imports the tiles of the pack given as first argument into the disk cache given as second argument, and prints
+     * the number of tiles imported
+     *
+     * @param args (String[]) : arguments
+     * @throws IOException if an input/output error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> paths = new ArrayList<>();
+        int minZoom = MapParameters.MIN_ZOOM_LEVEL, maxZoom = MapParameters.MAX_ZOOM_LEVEL;
+        TilePack.Area area = TilePack.Area.WORLD;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                boolean hasValue = i + 1 < args.length;
+                if (args[i].equals(ZOOM_OPTION) && hasValue) {
+                    String[] zooms = args[++i].split("-");
+                    minZoom = Integer.parseInt(zooms[0]);
+                    maxZoom = Integer.parseInt(zooms[zooms.length - 1]);
+                } else if (args[i].equals(BOX_OPTION) && hasValue) {
+                    String[] s = args[++i].split(",");
+                    if (s.length != 4) throw new IllegalArgumentException();
+                    area = new TilePack.Area(degrees(s[0]), degrees(s[1]), degrees(s[2]), degrees(s[3]));
+                } else if (args[i].equals(THREADS_OPTION) && hasValue) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (!args[i].startsWith(OPTION_PREFIX)) {
+                    paths.add(args[i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (paths.size() != 2 || minZoom > maxZoom || threads <= 0) throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        try (TilePack pack = TilePack.open(Path.of(paths.get(0)));
+             PackedTileStore store = new PackedTileStore(Path.of(paths.get(1)))) {
+            List<TileManager.TileId> tiles = pack.tiles(minZoom, maxZoom, area);
+            Result result = importTiles(pack, store, tiles, threads);
+            System.out.printf("%d tiles imported (%d bytes), %d skipped, in %.1f s%n", result.imported(),
+                    result.bytes(), result.skipped(), (System.nanoTime() - startTime) / SECOND_IN_NS);
+        }
+    }
+
+    /**
+     * Imports the given tiles of the given pack into the given store, using the given number of threads
+     *
+     * @param pack    (TilePack) : pack of tiles
+     * @param store   (PackedTileStore) : store receiving the tiles
+     * @param tiles   (List<TileId>) : IDs of the tiles to import
+     * @param threads (int) : number of threads reading and storing the tiles, strictly positive
+     * @return the numbers of tiles imported and skipped (because they are not PNG images)
+     * @throws IOException if an input/output error occurs
+     */
+    public static Result importTiles(TilePack pack, PackedTileStore store, List<TileManager.TileId> tiles,
+                                     int threads) throws IOException {
+        // the imported tiles are never revalidated nor evicted
+        PackedTileStore.Metadata metadata = new PackedTileStore.Metadata(Long.MAX_VALUE, null, null, true);
+        AtomicInteger nextTile = new AtomicInteger(), imported = new AtomicInteger(), skipped = new AtomicInteger();
+        AtomicLong bytes = new AtomicLong();
+        AtomicBoolean stopped = new AtomicBoolean();
+        Callable<Void> worker = () -> {
+            try {
+                for (int i; !stopped.get() && (i = nextTile.getAndIncrement()) < tiles.size(); ) {
+                    TileManager.TileId id = tiles.get(i);
+                    byte[] image = pack.read(id);
+                    if (image == null) {
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                    store.put(id, image, metadata);
+                    imported.incrementAndGet();
+                    bytes.addAndGet(image.length);
+                }
+                return null;
+            } catch (IOException | RuntimeException e) {
+                stopped.set(true);
+                throw e;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        IOException failure = null;
+        try {
+            List<Future<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) workers.add(executor.submit(worker));
+            // all the workers are waited for, so that none of them still writes to the store once it is closed
+            for (Future<Void> future : workers) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            // the workers finish the tile they are storing, as interrupting them would close the data file
+            stopped.set(true);
+            executor.shutdown();
+        }
+        if (failure != null) throw failure;
+        store.saveIndex();
+        return new Result(imported.get(), skipped.get(), bytes.get());
+    }
+
+    /**
+     * Returns the angle in radians given in degrees by the given string
+     */
+    private static double degrees(String angle) {
+        return Units.convertFrom(Double.parseDouble(angle.trim()), Units.Angle.DEGREE);
+    }
+
+    /**
+     * Result of an import
+     *
+     * @param imported (int) : number of tiles imported
+     * @param skipped  (int) : number of tiles skipped because they are not PNG images
+     * @param bytes    (long) : number of bytes of the images imported
+     */
+    public record Result(int imported, int skipped, long bytes) {
+    }
+
+}
@@ -0,0 +1,128 @@
+package ch.epfl.javions.gui;
+
+import javafx.geometry.Point2D;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Predicts the tiles that will probably be visible soon, and asks the tile manager to prefetch them.
+ * <p>
+ * The predicted tiles are, in decreasing order of importance : the tiles that will be visible if the map keeps moving
+ * at its current velocity, a ring of tiles around the visible ones, and the tiles that will be visible if the user
+ * zooms in or out at the position of the mouse. Every time the prediction is updated, the prefetches of the tiles
+ * that are no longer predicted are cancelled. Meant to be used on the JavaFX thread only.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TilePrefetcher {
+    private static final int TILE_SIZE = TileManager.TileId.TILE_SIZE;
+    private static final int RING_WIDTH = 1;
+    private static final int MAX_PREFETCHED_TILES = 32;
+    private static final double LOOKAHEAD_SECONDS = 0.5;
+    private static final double VELOCITY_SMOOTHING = 0.5;
+    private static final double SECOND_IN_NS = 1e9;
+    private final TileManager tileManager;
+    private Set<TileManager.TileId> prefetchedTiles;
+    private int lastZoom;
+    private double lastMinX, lastMinY;
+    private long lastUpdateNs;
+    private double velocityX, velocityY;
+
+    /**
+     * Creates a prefetcher using the given tile manager
+     *
+     * @param tileManager (TileManager) : tile manager loading the tiles
+     */
+    public TilePrefetcher(TileManager tileManager) {
+        this.tileManager = tileManager;
+        this.prefetchedTiles = new HashSet<>();
+        this.lastZoom = -1;
+    }
+
+    /**
+     * Updates the prediction for the given visible portion of the map, prefetching the newly predicted tiles and
+     * cancelling the prefetches of the tiles that are no longer predicted
+     *
+     * @param zoom   (int) : zoom level of the map
+     * @param minX   (double) : x coordinate of the top left corner of the visible portion of the map
+     * @param minY   (double) : y coordinate of the top left corner of the visible portion of the map
+     * @param width  (double) : width of the visible portion of the map
+     * @param height (double) : height of the visible portion of the map
+     * @param cursor (Point2D) : position of the mouse relative to the visible portion, or null if it is elsewhere
+     */
+    public void update(int zoom, double minX, double minY, double width, double height, Point2D cursor) {
+        updateVelocity(zoom, minX, minY);
+
+        Set<TileManager.TileId> visible = new HashSet<>();
+        addTiles(visible, zoom, minX, minY, width, height, 0);
+
+        Set<TileManager.TileId> predicted = new LinkedHashSet<>();
+        addTiles(predicted, zoom, minX + velocityX * LOOKAHEAD_SECONDS, minY + velocityY * LOOKAHEAD_SECONDS,
+                width, height, 0);
+        addTiles(predicted, zoom, minX, minY, width, height, RING_WIDTH);
+
+        // when zooming, the point under the mouse stays at the same place
+        Point2D pivot = cursor != null ? cursor : new Point2D(width / 2, height / 2);
+        if (zoom < MapParameters.MAX_ZOOM_LEVEL) {
+            addTiles(predicted, zoom + 1, 2 * (minX + pivot.getX()) - pivot.getX(),
+                    2 * (minY + pivot.getY()) - pivot.getY(), width, height, 0);
+        }
+        if (zoom > MapParameters.MIN_ZOOM_LEVEL) {
+            addTiles(predicted, zoom - 1, (minX + pivot.getX()) / 2 - pivot.getX(),
+                    (minY + pivot.getY()) / 2 - pivot.getY(), width, height, 0);
+        }
+        predicted.removeAll(visible);
+
+        Set<TileManager.TileId> prefetched = new HashSet<>();
+        for (TileManager.TileId id : predicted) {
+            if (prefetched.size() == MAX_PREFETCHED_TILES) break;
+            if (tileManager.cachedImageForTileAt(id) != null) continue;
+            tileManager.prefetchImageForTileAt(id);
+            prefetched.add(id);
+        }
+        for (TileManager.TileId id : prefetchedTiles) {
+            if (!prefetched.contains(id)) tileManager.cancelPrefetch(id);
+        }
+        prefetchedTiles = prefetched;
+    }
+
+    /**
+     * Updates the velocity of the map, in pixels per second, smoothed over the last updates
+     */
+    private void updateVelocity(int zoom, double minX, double minY) {
+        long now = System.nanoTime();
+        if (zoom == lastZoom && now > lastUpdateNs) {
+            double seconds = (now - lastUpdateNs) / SECOND_IN_NS;
+            velocityX = VELOCITY_SMOOTHING * velocityX + (1 - VELOCITY_SMOOTHING) * (minX - lastMinX) / seconds;
+            velocityY = VELOCITY_SMOOTHING * velocityY + (1 - VELOCITY_SMOOTHING) * (minY - lastMinY) / seconds;
+        } else {
+            velocityX = 0;
+            velocityY = 0;
+        }
+        lastZoom = zoom;
+        lastMinX = minX;
+        lastMinY = minY;
+        lastUpdateNs = now;
+    }
+
+    /**
+     * Adds to the given set the valid tiles of the given zoom level covering the given portion of the map, extended
+     * by the given number of tiles on each side
+     */
+    private static void addTiles(Set<TileManager.TileId> tiles, int zoom, double minX, double minY, double width,
+                                 double height, int margin) {
+        int tileMinX = (int) Math.floor(minX / TILE_SIZE) - margin;
+        int tileMinY = (int) Math.floor(minY / TILE_SIZE) - margin;
+        int tileMaxX = (int) Math.floor((minX + width) / TILE_SIZE) + margin;
+        int tileMaxY = (int) Math.floor((minY + height) / TILE_SIZE) + margin;
+        for (int x = tileMinX; x <= tileMaxX; ++x) {
+            for (int y = tileMinY; y <= tileMaxY; ++y) {
+                if (TileManager.TileId.isValid(zoom, x, y)) tiles.add(new TileManager.TileId(zoom, x, y));
+            }
+        }
+    }
+
+}
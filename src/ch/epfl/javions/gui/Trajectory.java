@@ -0,0 +1,310 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.GeoPos;
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.Units;
+
+import java.util.Arrays;
+
+/**
+ * Represents the trajectory of an aircraft, stored in primitive ring buffers of bounded capacity : once the trajectory
+ * is full, every new point replaces the oldest one.
+ * <p>
+ * The points are simplified as they arrive : a new point replaces the last one instead of being added after it when
+ * the last one lies on the straight line going from the point before it to the new one (within a heading tolerance),
+ * at a similar altitude, and not too far away. Straight parts of a flight therefore use only a few points.
+ * <p>
+ * Every point also receives, when it is added, the smallest zoom level at which it is a vertex of the decimated
+ * trajectory of that level : a point is a vertex of a level if it lies at least a few pixels away, once projected at
+ * that level, from the previous vertex of the level. A vertex of a level is also a vertex of all the higher levels, so
+ * that the decimated trajectories of all the levels are stored in a single byte per point. The level of the last point
+ * is computed again whenever it is replaced, as only its new position counts.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class Trajectory {
+    /**
+     * Default maximum number of points of a trajectory
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 10;
+    private static final double HEADING_TOLERANCE = Units.convertFrom(2, Units.Angle.DEGREE);
+    private static final double ALTITUDE_TOLERANCE = 50;
+    private static final double EARTH_RADIUS = 6_371 * Units.Length.KILOMETER;
+    private static final double MAX_MERGED_LENGTH = 5 * Units.Length.KILOMETER;
+    private static final double VERTEX_TOLERANCE = 2;
+    private static final int ZOOM_LEVEL_COUNT = MapParameters.MAX_ZOOM_LEVEL - MapParameters.MIN_ZOOM_LEVEL + 1;
+    private final int[] longitudesT32;
+    private final int[] latitudesT32;
+    private final float[] altitudes;
+    private final long[] timeStamps;
+    private final byte[] vertexZoomLevels;
+    private final long[] lastVertexIndices;
+    private final long[] previousVertexIndices;
+    private int start;
+    private int size;
+    private long endIndex;
+    private long version;
+
+    /**
+     * Creates an empty trajectory
+     *
+     * @param capacity (int) : maximum number of points, at least 2
+     * @throws IllegalArgumentException if the capacity is smaller than 2
+     */
+    public Trajectory(int capacity) {
+        Preconditions.checkArgument(capacity >= 2);
+        this.longitudesT32 = new int[capacity];
+        this.latitudesT32 = new int[capacity];
+        this.altitudes = new float[capacity];
+        this.timeStamps = new long[capacity];
+        this.vertexZoomLevels = new byte[capacity];
+        this.lastVertexIndices = new long[ZOOM_LEVEL_COUNT];
+        this.previousVertexIndices = new long[ZOOM_LEVEL_COUNT];
+        Arrays.fill(lastVertexIndices, -1);
+    }
+
+    /**
+     * Creates an empty trajectory with the default capacity
+     */
+    public Trajectory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the number of points of the trajectory
+     *
+     * @return number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of points of the trajectory
+     *
+     * @return maximum number of points
+     */
+    public int capacity() {
+        return longitudesT32.length;
+    }
+
+    /**
+     * Returns the number of points ever appended to the trajectory, which is also the absolute index of the point
+     * following the last one. The absolute index of the point at index i is therefore endIndex() - size() + i, and
+     * does not change when older points are dropped.
+     *
+     * @return number of points ever appended
+     */
+    public long endIndex() {
+        return endIndex;
+    }
+
+    /**
+     * Returns the number of the version of the trajectory, which changes every time the trajectory is modified
+     *
+     * @return version of the trajectory
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the longitude of the point at the given index (0 being the oldest point), in T32
+     *
+     * @param index (int) : index of the point
+     * @return longitude of the point, in T32
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public int longitudeT32(int index) {
+        return longitudesT32[slot(index)];
+    }
+
+    /**
+     * Returns the latitude of the point at the given index (0 being the oldest point), in T32
+     *
+     * @param index (int) : index of the point
+     * @return latitude of the point, in T32
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public int latitudeT32(int index) {
+        return latitudesT32[slot(index)];
+    }
+
+    /**
+     * Returns the position of the point at the given index (0 being the oldest point)
+     *
+     * @param index (int) : index of the point
+     * @return position of the point
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public GeoPos position(int index) {
+        int slot = slot(index);
+        return new GeoPos(longitudesT32[slot], latitudesT32[slot]);
+    }
+
+    /**
+     * Returns the altitude of the point at the given index (0 being the oldest point), in meters
+     *
+     * @param index (int) : index of the point
+     * @return altitude of the point
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public double altitude(int index) {
+        return altitudes[slot(index)];
+    }
+
+    /**
+     * Returns the timestamp of the point at the given index (0 being the oldest point), in nanoseconds
+     *
+     * @param index (int) : index of the point
+     * @return timestamp of the point
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public long timeStampNs(int index) {
+        return timeStamps[slot(index)];
+    }
+
+    /**
+     * Returns the smallest zoom level at which the point at the given index (0 being the oldest point) is a vertex of
+     * the decimated trajectory, which is greater than the maximum zoom level if the point is never a vertex. The first
+     * and the last points should always be drawn, whatever their level.
+     *
+     * @param index (int) : index of the point
+     * @return smallest zoom level at which the point is a vertex
+     * @throws IndexOutOfBoundsException if the index is not between 0 (included) and the size (excluded)
+     */
+    public int vertexZoomLevel(int index) {
+        return vertexZoomLevels[slot(index)];
+    }
+
+    /**
+     * Adds a point at the end of the trajectory, or replaces the last point with it if the last point is not needed
+     * to follow the trajectory
+     *
+     * @param position    (GeoPos) : position of the aircraft
+     * @param altitude    (double) : altitude of the aircraft, in meters
+     * @param timeStampNs (long) : timestamp of the position, in nanoseconds
+     */
+    public void add(GeoPos position, double altitude, long timeStampNs) {
+        if (size >= 2 && lastPointIsRedundant(position, altitude)) {
+            set(slot(size - 1), position, altitude, timeStampNs);
+            updateLastVertex();
+        } else {
+            if (size == longitudesT32.length) {
+                start = (start + 1) % longitudesT32.length;
+                --size;
+            }
+            set(slot(size++), position, altitude, timeStampNs);
+            appendVertex();
+        }
+        ++version;
+    }
+
+    /**
+     * Replaces the last point of the trajectory, which is added if the trajectory is empty
+     *
+     * @param position    (GeoPos) : position of the aircraft
+     * @param altitude    (double) : altitude of the aircraft, in meters
+     * @param timeStampNs (long) : timestamp of the position, in nanoseconds
+     */
+    public void replaceLast(GeoPos position, double altitude, long timeStampNs) {
+        boolean empty = size == 0;
+        if (empty) ++size;
+        set(slot(size - 1), position, altitude, timeStampNs);
+        if (empty) {
+            appendVertex();
+        } else {
+            updateLastVertex();
+        }
+        ++version;
+    }
+
+    /**
+     * Returns the index in the arrays of the point at the given index of the trajectory
+     */
+    private int slot(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return (start + index) % longitudesT32.length;
+    }
+
+    /**
+     * Stores a point in the given slot of the arrays
+     */
+    private void set(int slot, GeoPos position, double altitude, long timeStampNs) {
+        longitudesT32[slot] = position.longitudeT32();
+        latitudesT32[slot] = position.latitudeT32();
+        altitudes[slot] = (float) altitude;
+        timeStamps[slot] = timeStampNs;
+    }
+
+    /**
+     * Computes the smallest zoom level at which the point that was just stored after the last one is a vertex, makes
+     * it the last vertex of that level and of all the higher ones, and counts it in the end index
+     */
+    private void appendVertex() {
+        System.arraycopy(lastVertexIndices, 0, previousVertexIndices, 0, ZOOM_LEVEL_COUNT);
+        int last = slot(size - 1);
+        long firstIndex = endIndex - size + 1;
+        int level = 0;
+        for (; level < ZOOM_LEVEL_COUNT; ++level) {
+            long vertexIndex = lastVertexIndices[level];
+            if (vertexIndex < firstIndex || pixelDistance(slot((int) (vertexIndex - firstIndex)), last,
+                    MapParameters.MIN_ZOOM_LEVEL + level) >= VERTEX_TOLERANCE) break;
+        }
+        vertexZoomLevels[last] = (byte) (MapParameters.MIN_ZOOM_LEVEL + level);
+        for (int l = level; l < ZOOM_LEVEL_COUNT; ++l) lastVertexIndices[l] = endIndex;
+        ++endIndex;
+    }
+
+    /**
+     * Computes again the smallest zoom level at which the last point, which was just replaced, is a vertex, from the
+     * last vertices of the levels as they were before it was appended
+     */
+    private void updateLastVertex() {
+        System.arraycopy(previousVertexIndices, 0, lastVertexIndices, 0, ZOOM_LEVEL_COUNT);
+        --endIndex;
+        appendVertex();
+    }
+
+    /**
+     * Returns the distance, in pixels, between the points stored in the given slots once projected with the Web
+     * Mercator projection at the given zoom level
+     */
+    private double pixelDistance(int slot1, int slot2, int zoom) {
+        double cosLatitude = Math.cos(Units.convertFrom(latitudesT32[slot2], Units.Angle.T32));
+        double dx = longitudesT32[slot2] - longitudesT32[slot1];
+        double dy = (latitudesT32[slot2] - latitudesT32[slot1]) / cosLatitude;
+        // one T32 unit is 2^(zoom - 24) pixels at the given zoom level
+        return Math.scalb(Math.hypot(dx, dy), zoom - 24);
+    }
+
+    /**
+     * Checks if the last point lies, within the tolerances, on the segment going from the point before it to the
+     * given new point
+     */
+    private boolean lastPointIsRedundant(GeoPos position, double altitude) {
+        int previous = slot(size - 2), last = slot(size - 1);
+        if (Math.abs(altitudes[previous] - altitude) > ALTITUDE_TOLERANCE
+                || Math.abs(altitudes[last] - altitude) > ALTITUDE_TOLERANCE) return false;
+
+        double cosLatitude = Math.cos(Units.convertFrom(latitudesT32[last], Units.Angle.T32));
+        double x1 = deltaT32(longitudesT32[last], longitudesT32[previous]) * cosLatitude;
+        double y1 = deltaT32(latitudesT32[last], latitudesT32[previous]);
+        double x2 = deltaT32(position.longitudeT32(), longitudesT32[last]) * cosLatitude;
+        double y2 = deltaT32(position.latitudeT32(), latitudesT32[last]);
+        if ((x2 == 0 && y2 == 0) || (x1 == 0 && y1 == 0)) return true;
+
+        double mergedLength = Math.hypot(x1 + x2, y1 + y2) * EARTH_RADIUS;
+        double headingChange = Math.abs(Math.atan2(x1 * y2 - y1 * x2, x1 * x2 + y1 * y2));
+        return mergedLength <= MAX_MERGED_LENGTH && headingChange <= HEADING_TOLERANCE;
+    }
+
+    /**
+     * Returns the difference between two angles in T32, in radians
+     */
+    private static double deltaT32(int to, int from) {
+        return Units.convertFrom(to - from, Units.Angle.T32);
+    }
+
+}
@@ -0,0 +1,211 @@
+package ch.epfl.javions.gui;
+
+import ch.epfl.javions.Units;
+import ch.epfl.javions.WebMercator;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.property.ObjectProperty;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.shape.StrokeLineCap;
+
+/**
+ * Draws the trajectory of the selected aircraft on two canvases.
+ * <p>
+ * The points of the trajectory are projected once for the current zoom level and kept, with the bucket of their color
+ * on the ramp, in arrays indexed like the trajectory, the paints of the segments being cached by the ramp. As only the
+ * last point of a trajectory can be replaced, the segment ending at it is drawn alone on a second canvas, above the
+ * first one, which is cleared every time the trajectory changes. When points are appended or the last one is
+ * replaced, only the points from the last one are projected again, and only the segments from the vertex preceding it
+ * are drawn; the whole trajectory is drawn again, in a single pass over the cached projections, only when the map is
+ * moved or when the oldest points are dropped. The points are projected again only when the zoom level changes.
+ * <p>
+ * Only the vertices of the decimated trajectory of the current zoom level are joined by segments, so that the number
+ * of segments drawn depends on the size of the trajectory on the screen and not on its number of points.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class TrajectoryCanvas {
+    private static final double LINE_WIDTH = 3;
+    private final MapParameters mapParams;
+    private final Canvas canvas;
+    private final Canvas lastSegmentCanvas;
+    private final Pane pane;
+    private final InvalidationListener trajectoryListener;
+    private ObservableAircraftState aircraft;
+    private double[] xs;
+    private double[] ys;
+    private int[] colorBuckets;
+    private int projectedZoom;
+    private long projectedEndIndex;
+    private long drawnFirstIndex;
+    private long drawnLastVertex;
+    private boolean updateNeeded;
+    private boolean redrawNeeded;
+
+    /**
+     * Creates the canvases of the trajectory of the selected aircraft
+     *
+     * @param mapParams             (MapParameters) : map parameters
+     * @param selectedAircraftState (ObjectProperty<ObservableAircraftState>) : selected aircraft state
+     */
+    public TrajectoryCanvas(MapParameters mapParams, ObjectProperty<ObservableAircraftState> selectedAircraftState) {
+        this.mapParams = mapParams;
+        this.canvas = new Canvas();
+        this.lastSegmentCanvas = new Canvas();
+        this.pane = new Pane(canvas, lastSegmentCanvas);
+        this.trajectoryListener = o -> updateOnNextPulse();
+        pane.setMouseTransparent(true);
+        for (Canvas c : new Canvas[]{canvas, lastSegmentCanvas}) {
+            c.widthProperty().bind(pane.widthProperty());
+            c.heightProperty().bind(pane.heightProperty());
+        }
+
+        pane.sceneProperty().addListener((p, oldS, newS) -> {
+            if (newS != null) newS.addPreLayoutPulseListener(this::drawIfNeeded);
+        });
+        canvas.widthProperty().addListener(o -> redrawOnNextPulse());
+        canvas.heightProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.minXProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.minYProperty().addListener(o -> redrawOnNextPulse());
+        mapParams.zoomProperty().addListener(o -> redrawOnNextPulse());
+        selectedAircraftState.addListener((p, oldS, newS) -> select(newS));
+        select(selectedAircraftState.get());
+    }
+
+    /**
+     * Returns the pane containing the canvases, whose size must be set by its parent
+     *
+     * @return the pane containing the canvases
+     */
+    public Pane pane() {
+        return pane;
+    }
+
+    /**
+     * Starts following the trajectory of the given aircraft (which can be null), and forgets the projections of the
+     * previous one
+     */
+    private void select(ObservableAircraftState selected) {
+        if (aircraft != null) aircraft.trajectoryVersionProperty().removeListener(trajectoryListener);
+        aircraft = selected;
+        if (aircraft != null) {
+            aircraft.trajectoryVersionProperty().addListener(trajectoryListener);
+            int capacity = aircraft.trajectory().capacity();
+            if (xs == null || xs.length != capacity) {
+                xs = new double[capacity];
+                ys = new double[capacity];
+                colorBuckets = new int[capacity];
+            }
+        }
+        projectedEndIndex = 0;
+        redrawOnNextPulse();
+    }
+
+    /**
+     * Requests the new points of the trajectory to be drawn on the next pulse
+     */
+    private void updateOnNextPulse() {
+        updateNeeded = true;
+        Platform.requestNextPulse();
+    }
+
+    /**
+     * Requests the whole trajectory to be drawn again on the next pulse
+     */
+    private void redrawOnNextPulse() {
+        redrawNeeded = true;
+        Platform.requestNextPulse();
+    }
+
+    /**
+     * Draws what changed since the last pulse, if anything did
+     */
+    private void drawIfNeeded() {
+        if (!updateNeeded && !redrawNeeded) return;
+        boolean redraw = redrawNeeded;
+        updateNeeded = false;
+        redrawNeeded = false;
+
+        if (aircraft == null) {
+            clear();
+            return;
+        }
+
+        Trajectory trajectory = aircraft.trajectory();
+        int zoom = mapParams.getZoom();
+        long endIndex = trajectory.endIndex();
+        long firstIndex = endIndex - trajectory.size();
+        boolean sameZoom = zoom == projectedZoom && projectedEndIndex > firstIndex;
+
+        // the points before the last projected one did not change, as only the last point can be replaced
+        project(trajectory, zoom, sameZoom ? Math.max(firstIndex, projectedEndIndex - 1) : firstIndex, firstIndex);
+        projectedZoom = zoom;
+        projectedEndIndex = endIndex;
+
+        if (!redraw && sameZoom && firstIndex == drawnFirstIndex) {
+            clear(lastSegmentCanvas);
+            drawSegments(trajectory, zoom, drawnLastVertex, drawnLastVertex + 1);
+        } else {
+            clear();
+            drawnLastVertex = firstIndex;
+            drawSegments(trajectory, zoom, firstIndex, firstIndex + 1);
+            drawnFirstIndex = firstIndex;
+        }
+    }
+
+    /**
+     * Projects the points of the trajectory from the given absolute index to its end, and computes their color buckets
+     */
+    private void project(Trajectory trajectory, int zoom, long from, long firstIndex) {
+        int capacity = xs.length;
+        for (long index = from; index < trajectory.endIndex(); ++index) {
+            int i = (int) (index - firstIndex), slot = (int) (index % capacity);
+            xs[slot] = WebMercator.x(zoom, Units.convertFrom(trajectory.longitudeT32(i), Units.Angle.T32));
+            ys[slot] = WebMercator.y(zoom, Units.convertFrom(trajectory.latitudeT32(i), Units.Angle.T32));
+            colorBuckets[slot] = ColorRamp.bucketAtAltitude(trajectory.altitude(i));
+        }
+    }
+
+    /**
+     * Draws the segments joining the given vertex to the vertices of the given zoom level that follow it, starting at
+     * the point at the given absolute index, the last point of the trajectory always being a vertex. The segment
+     * ending at the last point is drawn on its own canvas, and the vertex preceding it is remembered.
+     */
+    private void drawSegments(Trajectory trajectory, int zoom, long vertex, long from) {
+        double minX = mapParams.getMinX(), minY = mapParams.getMinY();
+        int capacity = xs.length;
+        long endIndex = trajectory.endIndex(), firstIndex = endIndex - trajectory.size();
+        for (long index = from; index < endIndex; ++index) {
+            boolean last = index == endIndex - 1;
+            if (!last && trajectory.vertexZoomLevel((int) (index - firstIndex)) > zoom) continue;
+            if (last) drawnLastVertex = vertex;
+
+            GraphicsContext gc = (last ? lastSegmentCanvas : canvas).getGraphicsContext2D();
+            gc.setLineWidth(LINE_WIDTH);
+            gc.setLineCap(StrokeLineCap.ROUND);
+            int previous = (int) (vertex % capacity), current = (int) (index % capacity);
+            gc.setStroke(ColorRamp.PLASMA.gradient(colorBuckets[previous], colorBuckets[current]));
+            gc.strokeLine(xs[previous] - minX, ys[previous] - minY, xs[current] - minX, ys[current] - minY);
+            vertex = index;
+        }
+    }
+
+    /**
+     * Erases both canvases
+     */
+    private void clear() {
+        clear(canvas);
+        clear(lastSegmentCanvas);
+    }
+
+    /**
+     * Erases the given canvas
+     */
+    private static void clear(Canvas c) {
+        c.getGraphicsContext2D().clearRect(0, 0, c.getWidth(), c.getHeight());
+    }
+
+}
@@ -0,0 +1,174 @@
+package ch.epfl.javions.headless;
+
+import ch.epfl.javions.adsb.*;
+import ch.epfl.javions.aircraft.IcaoAddress;
+import ch.epfl.javions.demodulation.AdsbDemodulator;
+import ch.epfl.javions.recording.MessageArchiveReader;
+import ch.epfl.javions.recording.MessageRecorder;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Contains a headless version of the program "Javions", which decodes the messages and accumulates the states of
+ * the aircraft without any graphical interface, and prints throughput statistics when it stops.
+ * <p>
+ * Usage : {@code HeadlessMain} (samples from the standard input), {@code HeadlessMain --samples <file>},
+ * {@code HeadlessMain --archive <file>} or {@code HeadlessMain [--messages] <file>}, optionally followed by
+ * {@code --record <directory>} to record the valid messages into files that can be replayed
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class HeadlessMain {
+    private static final String SAMPLES_OPTION = "--samples";
+    private static final String MESSAGES_OPTION = "--messages";
+    private static final String ARCHIVE_OPTION = "--archive";
+    private static final String RECORD_OPTION = "--record";
+    private static final String OPTION_PREFIX = "--";
+    private static final String USAGE = "Usage: HeadlessMain " +
+            "[--samples <file> | --archive <file> | [--messages] <file>] [--record <directory>]";
+    private static final long MAX_RECORDING_FILE_BYTES = 256L << 20;
+    private static final Duration MAX_RECORDING_FILE_DURATION = Duration.ofHours(1);
+    private final Map<IcaoAddress, AircraftStateAccumulator<MutableAircraftState>> icaoToAccumulatorMap;
+    private final PipelineStatistics statistics;
+    private final MessageRecorder recorder;
+    private final DuplicateFilter duplicateFilter;
+
+    private HeadlessMain(PipelineStatistics statistics, MessageRecorder recorder) {
+        this.icaoToAccumulatorMap = new HashMap<>();
+        this.duplicateFilter = new DuplicateFilter();
+        this.statistics = statistics;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Runs the pipeline on the source given by the arguments
+     *
+     * @param args (String[]) : arguments
+     * @throws IOException if an input/output error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        String samplesFile = null, archiveFile = null, messagesFile = null, recordingDirectory = null;
+        for (int i = 0; i < args.length; ++i) {
+            boolean hasValue = i + 1 < args.length;
+            if (args[i].equals(SAMPLES_OPTION) && hasValue) {
+                samplesFile = args[++i];
+            } else if (args[i].equals(ARCHIVE_OPTION) && hasValue) {
+                archiveFile = args[++i];
+            } else if (args[i].equals(MESSAGES_OPTION) && hasValue) {
+                messagesFile = args[++i];
+            } else if (args[i].equals(RECORD_OPTION) && hasValue) {
+                recordingDirectory = args[++i];
+            } else if (!args[i].startsWith(OPTION_PREFIX) && messagesFile == null) {
+                messagesFile = args[i];
+            } else {
+                System.err.println(USAGE);
+                return;
+            }
+        }
+
+        MessageRecorder recorder = (recordingDirectory != null) ?
+                new MessageRecorder(
+                        Path.of(recordingDirectory), MAX_RECORDING_FILE_BYTES, MAX_RECORDING_FILE_DURATION) :
+                null;
+        PipelineStatistics statistics = new PipelineStatistics();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (recorder != null) recorder.close();
+            } catch (IOException e) {
+                System.err.printf("Recording failed: %s%n", e.getMessage());
+            }
+            statistics.print(System.out);
+        }));
+        HeadlessMain pipeline = new HeadlessMain(statistics, recorder);
+
+        if (samplesFile != null) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(samplesFile))) {
+                pipeline.runOnSamples(in);
+            }
+        } else if (archiveFile != null) {
+            try (MessageArchiveReader reader = new MessageArchiveReader(new FileInputStream(archiveFile))) {
+                pipeline.runOnArchive(reader);
+            }
+        } else if (messagesFile != null) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(messagesFile))) {
+                pipeline.runOnMessages(in);
+            }
+        } else {
+            pipeline.runOnSamples(System.in);
+        }
+    }
+
+    /**
+     * Demodulates the given stream of samples and processes all the messages it contains
+     */
+    private void runOnSamples(InputStream samples) throws IOException {
+        AdsbDemodulator demodulator = new AdsbDemodulator(samples);
+        RawMessage rawMessage;
+        while ((rawMessage = demodulator.nextMessage()) != null) {
+            process(rawMessage);
+            statistics.setSamples(demodulator.samplesProcessed());
+            statistics.setCrcRejects(demodulator.crcRejectCount());
+        }
+        statistics.setSamples(demodulator.samplesProcessed());
+        statistics.setCrcRejects(demodulator.crcRejectCount());
+    }
+
+    /**
+     * Reads the given stream of (timestamp, message) records and processes all the messages it contains
+     */
+    private void runOnMessages(InputStream messages) throws IOException {
+        long crcRejects = 0;
+        try (DataInputStream s = new DataInputStream(messages)) {
+            byte[] bytes = new byte[RawMessage.LENGTH];
+            for (; ; ) {
+                long timeStampNs = s.readLong();
+                s.readFully(bytes);
+                RawMessage rawMessage = RawMessage.of(timeStampNs, bytes);
+                if (rawMessage != null) {
+                    process(rawMessage);
+                } else {
+                    statistics.setCrcRejects(++crcRejects);
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+    }
+
+    /**
+     * Processes all the messages of the given archive
+     */
+    private void runOnArchive(MessageArchiveReader reader) throws IOException {
+        RawMessage rawMessage;
+        while ((rawMessage = reader.next()) != null) {
+            process(rawMessage);
+        }
+    }
+
+    /**
+     * Parses a raw message and updates the state of the aircraft that sent it, unless it is a duplicate
+     */
+    private void process(RawMessage rawMessage) {
+        if (recorder != null) recorder.offer(rawMessage);
+        if (duplicateFilter.isDuplicate(rawMessage)) {
+            statistics.countDuplicate(rawMessage.typeCode());
+            return;
+        }
+        Message m = MessageParser.parse(rawMessage);
+        statistics.countFrame(rawMessage.typeCode(), m != null);
+        if (m == null) return;
+
+        AircraftStateAccumulator<MutableAircraftState> asa = icaoToAccumulatorMap.get(m.icaoAddress());
+        if (asa == null) {
+            asa = new AircraftStateAccumulator<>(new MutableAircraftState(m.icaoAddress()));
+            icaoToAccumulatorMap.put(m.icaoAddress(), asa);
+            statistics.setAircraftCount(icaoToAccumulatorMap.size());
+        }
+        asa.update(m);
+    }
+
+}
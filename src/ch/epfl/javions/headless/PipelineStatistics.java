@@ -0,0 +1,117 @@
+package ch.epfl.javions.headless;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Collects the counters of a decoding pipeline (samples, frames, messages) and prints them as throughput statistics
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class PipelineStatistics {
+    private static final int TYPE_CODES = 1 << 5;
+    private static final double SECOND_IN_NS = 1e9;
+    private static final double MEGA = 1 << 20;
+    private final long startTimeNs;
+    private final long[] framesPerTypeCode;
+    private volatile long samples;
+    private volatile long frames;
+    private volatile long messages;
+    private volatile long duplicates;
+    private volatile long crcRejects;
+    private volatile int aircraftCount;
+
+    /**
+     * Creates the statistics of a pipeline starting now
+     */
+    public PipelineStatistics() {
+        this.startTimeNs = System.nanoTime();
+        this.framesPerTypeCode = new long[TYPE_CODES];
+    }
+
+    /**
+     * Sets the number of samples read by the demodulator
+     *
+     * @param samples (long) : number of samples read so far
+     */
+    public void setSamples(long samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Sets the number of frames rejected because of their CRC
+     *
+     * @param crcRejects (long) : number of frames rejected so far
+     */
+    public void setCrcRejects(long crcRejects) {
+        this.crcRejects = crcRejects;
+    }
+
+    /**
+     * Sets the number of aircraft whose state is being accumulated
+     *
+     * @param aircraftCount (int) : number of aircraft
+     */
+    public void setAircraftCount(int aircraftCount) {
+        this.aircraftCount = aircraftCount;
+    }
+
+    /**
+     * Counts a valid frame of the given type code
+     *
+     * @param typeCode (int) : type code of the frame
+     * @param parsed   (boolean) : true if the frame could be parsed into a message
+     */
+    public void countFrame(int typeCode, boolean parsed) {
+        ++framesPerTypeCode[typeCode];
+        ++frames;
+        if (parsed) ++messages;
+    }
+
+    /**
+     * Counts a valid frame of the given type code that was removed because it is a duplicate
+     *
+     * @param typeCode (int) : type code of the frame
+     */
+    public void countDuplicate(int typeCode) {
+        ++framesPerTypeCode[typeCode];
+        ++frames;
+        ++duplicates;
+    }
+
+    /**
+     * Prints the statistics collected since the creation of this object
+     *
+     * @param out (PrintStream) : stream to print to
+     */
+    public void print(PrintStream out) {
+        double seconds = (System.nanoTime() - startTimeNs) / SECOND_IN_NS;
+        out.printf("Elapsed time      : %.3f s%n", seconds);
+        out.printf("Samples           : %d (%.0f samples/s)%n", samples, samples / seconds);
+        out.printf("Frames            : %d (%.1f frames/s)%n", frames, frames / seconds);
+        out.printf("Messages          : %d (%.1f messages/s)%n", messages, messages / seconds);
+        out.printf("Duplicates removed: %d%n", duplicates);
+        out.printf("CRC rejects       : %d%n", crcRejects);
+        out.printf("Aircraft          : %d%n", aircraftCount);
+        for (int typeCode = 0; typeCode < TYPE_CODES; ++typeCode) {
+            if (framesPerTypeCode[typeCode] != 0)
+                out.printf("  Type code %2d    : %d%n", typeCode, framesPerTypeCode[typeCode]);
+        }
+        out.printf("Peak heap         : %.1f MiB%n", peakHeapBytes() / MEGA);
+    }
+
+    /**
+     * Returns the sum of the peak usages of all heap memory pools
+     */
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+}
@@ -0,0 +1,160 @@
+package ch.epfl.javions.recording;
+
+import java.io.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Contains the constants and the encoding functions shared by the reader and the writer of message archives.
+ * <p>
+ * An archive starts with a magic number followed by segments. Each segment contains the number of messages it
+ * holds (int), the timestamp of its first message (long) and the following columns, each one stored as its length
+ * (varint), its stored length (varint) and its bytes, which are deflated if the two lengths differ :
+ * <ol>
+ *     <li>the differences between consecutive timestamps, as zigzag varints</li>
+ *     <li>the dictionary of the ICAO addresses of the segment, as a count (varint) followed by 3 bytes per address</li>
+ *     <li>the index in the dictionary of the address of each message, as varints</li>
+ *     <li>the type code of each message, as one byte</li>
+ *     <li>the first byte (down link format and capability) of each message</li>
+ *     <li>the payload (ME attribute) of each message, as 7 bytes, grouped by type code ; inside a group, the
+ *     first bytes of all payloads come first, then their second bytes, and so on, since bytes at the same position
+ *     are similar and compress better together</li>
+ * </ol>
+ * The parity (CRC) of the messages is not stored since only valid messages are archived, so that it can be
+ * computed again from the other bytes.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+final class MessageArchive {
+    static final int MAGIC = 0x4A564131; // "JVA1"
+    static final int TYPE_CODES = 1 << 5;
+    static final int ICAO_LENGTH = 3;
+    static final int PAYLOAD_START = 1 + ICAO_LENGTH;
+    static final int PAYLOAD_LENGTH = 7;
+    static final int CRC_START = PAYLOAD_START + PAYLOAD_LENGTH;
+    private static final int VARINT_GROUP_BITS = 7;
+    private static final int VARINT_GROUP_MASK = (1 << VARINT_GROUP_BITS) - 1;
+    private static final int VARINT_CONTINUATION = 1 << VARINT_GROUP_BITS;
+
+    private MessageArchive() {
+    }
+
+    /**
+     * Writes an unsigned value as a varint (7 bits per byte, the least significant group first)
+     *
+     * @param out   (ByteArrayOutputStream) : stream to write to
+     * @param value (long) : value, interpreted as unsigned
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~VARINT_GROUP_MASK) != 0) {
+            out.write((int) (value & VARINT_GROUP_MASK) | VARINT_CONTINUATION);
+            value >>>= VARINT_GROUP_BITS;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes a signed value as a zigzag varint, such that small negative values stay short
+     *
+     * @param out   (ByteArrayOutputStream) : stream to write to
+     * @param value (long) : signed value
+     */
+    static void writeSignedVarint(ByteArrayOutputStream out, long value) {
+        writeVarint(out, (value << 1) ^ (value >> (Long.SIZE - 1)));
+    }
+
+    /**
+     * Reads a varint from a stream
+     *
+     * @param in (InputStream) : stream to read from
+     * @return value read, interpreted as unsigned
+     * @throws IOException if an input/output error occurs or if the stream ends in the middle of the varint
+     */
+    static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += VARINT_GROUP_BITS) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (long) (b & VARINT_GROUP_MASK) << shift;
+            if ((b & VARINT_CONTINUATION) == 0) return value;
+        }
+    }
+
+    /**
+     * Reads a zigzag varint from a stream
+     *
+     * @param in (InputStream) : stream to read from
+     * @return signed value read
+     * @throws IOException if an input/output error occurs or if the stream ends in the middle of the varint
+     */
+    static long readSignedVarint(InputStream in) throws IOException {
+        long zigzag = readVarint(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Writes a column, deflated if this makes it shorter and if compression is enabled
+     *
+     * @param out      (DataOutputStream) : stream to write to
+     * @param column   (ByteArrayOutputStream) : content of the column
+     * @param deflater (Deflater) : deflater used to compress the column, or null if compression is disabled
+     * @throws IOException if an input/output error occurs
+     */
+    static void writeColumn(DataOutputStream out, ByteArrayOutputStream column, Deflater deflater)
+            throws IOException {
+        byte[] raw = column.toByteArray();
+        byte[] stored = raw;
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 2 + 1);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished() && deflated.size() < raw.length) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+            if (deflater.finished() && deflated.size() < raw.length) stored = deflated.toByteArray();
+        }
+
+        ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+        writeVarint(lengths, raw.length);
+        writeVarint(lengths, stored.length);
+        lengths.writeTo(out);
+        out.write(stored);
+    }
+
+    /**
+     * Reads a column, inflating it if it was deflated
+     *
+     * @param in       (DataInputStream) : stream to read from
+     * @param inflater (Inflater) : inflater used to decompress the column
+     * @return content of the column
+     * @throws IOException if an input/output error occurs or if the column is corrupted
+     */
+    static byte[] readColumn(DataInputStream in, Inflater inflater) throws IOException {
+        int rawLength = (int) readVarint(in);
+        int storedLength = (int) readVarint(in);
+        byte[] stored = new byte[storedLength];
+        in.readFully(stored);
+        if (storedLength == rawLength) return stored;
+
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(stored);
+        try {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflated += n;
+            }
+            if (inflated != rawLength) throw new IOException("Corrupted archive column");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return raw;
+    }
+
+}
@@ -0,0 +1,59 @@
+package ch.epfl.javions.recording;
+
+import ch.epfl.javions.adsb.RawMessage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Converts a message file (as read by the file mode of the program) into a compact columnar archive.
+ * <p>
+ * Usage : {@code MessageArchiveConverter <message file> <archive file>}
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MessageArchiveConverter {
+    private static final String USAGE = "Usage: MessageArchiveConverter <message file> <archive file>";
+
+    private MessageArchiveConverter() {
+    }
+
+    /**
+     * Converts the message file given as first argument into the archive given as second argument, and prints the
+     * sizes of both files. Messages whose CRC is not valid are not archived.
+     *
+     * @param args (String[]) : arguments
+     * @throws IOException if an input/output error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println(USAGE);
+            return;
+        }
+        Path messageFile = Path.of(args[0]), archiveFile = Path.of(args[1]);
+
+        long messages = 0;
+        try (DataInputStream s = new DataInputStream(new BufferedInputStream(Files.newInputStream(messageFile)));
+             MessageArchiveWriter w = new MessageArchiveWriter(Files.newOutputStream(archiveFile),
+                     MessageArchiveWriter.DEFAULT_SEGMENT_SIZE, true)) {
+            byte[] bytes = new byte[RawMessage.LENGTH];
+            for (; ; ) {
+                long timeStampNs = s.readLong();
+                s.readFully(bytes);
+                RawMessage rawMessage = RawMessage.of(timeStampNs, bytes);
+                if (rawMessage != null) {
+                    w.write(rawMessage);
+                    ++messages;
+                }
+            }
+        } catch (EOFException ignored) {
+        }
+
+        long messageFileSize = Files.size(messageFile), archiveSize = Files.size(archiveFile);
+        System.out.printf("%d messages, %d bytes -> %d bytes (%.2fx smaller)%n",
+                messages, messageFileSize, archiveSize, (double) messageFileSize / archiveSize);
+    }
+
+}
@@ -0,0 +1,137 @@
+package ch.epfl.javions.recording;
+
+import ch.epfl.javions.ByteString;
+import ch.epfl.javions.Crc24;
+import ch.epfl.javions.adsb.RawMessage;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+import static ch.epfl.javions.recording.MessageArchive.*;
+
+/**
+ * Reads the raw messages of a columnar archive written by a MessageArchiveWriter, one segment at a time
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MessageArchiveReader implements Closeable {
+    private static final Crc24 CRC_24 = new Crc24(Crc24.GENERATOR);
+    private final DataInputStream in;
+    private final Inflater inflater;
+    private final byte[] bytes;
+    private final int[] groupOffsets;
+    private final int[] groupSizes;
+    private final int[] groupPositions;
+    private long[] timeStamps;
+    private int[] icaoIndices;
+    private byte[] dictionary;
+    private byte[] typeCodes;
+    private byte[] firstBytes;
+    private byte[] payloads;
+    private int count;
+    private int next;
+
+    /**
+     * Creates a reader and checks the header of the archive
+     *
+     * @param in (InputStream) : stream containing the archive
+     * @throws IOException if an input/output error occurs or if the stream does not contain an archive
+     */
+    public MessageArchiveReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.inflater = new Inflater();
+        this.bytes = new byte[RawMessage.LENGTH];
+        this.groupOffsets = new int[TYPE_CODES];
+        this.groupSizes = new int[TYPE_CODES];
+        this.groupPositions = new int[TYPE_CODES];
+        if (this.in.readInt() != MAGIC) throw new IOException("Not a message archive");
+    }
+
+    /**
+     * Returns the next message of the archive
+     *
+     * @return the next message of the archive, or null if there are none
+     * @throws IOException if an input/output error occurs or if the archive is corrupted
+     */
+    public RawMessage next() throws IOException {
+        if (next == count && !readSegment()) return null;
+
+        int index = icaoIndices[next];
+        int typeCode = typeCodes[next];
+        bytes[0] = firstBytes[next];
+        System.arraycopy(dictionary, index * ICAO_LENGTH, bytes, 1, ICAO_LENGTH);
+        int position = groupOffsets[typeCode] + groupPositions[typeCode]++;
+        for (int j = 0; j < PAYLOAD_LENGTH; ++j, position += groupSizes[typeCode]) {
+            bytes[PAYLOAD_START + j] = payloads[position];
+        }
+
+        int crc = CRC_24.crc(Arrays.copyOf(bytes, CRC_START));
+        for (int i = RawMessage.LENGTH - 1; i >= CRC_START; --i, crc >>>= Byte.SIZE) bytes[i] = (byte) crc;
+
+        return new RawMessage(timeStamps[next++], new ByteString(bytes));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (in) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the next segment of the archive
+     *
+     * @return false if the end of the archive was reached
+     */
+    private boolean readSegment() throws IOException {
+        try {
+            count = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        next = 0;
+        long timeStamp = in.readLong();
+
+        ByteArrayInputStream column = new ByteArrayInputStream(readColumn(in, inflater));
+        timeStamps = new long[count];
+        for (int i = 0; i < count; ++i) {
+            timeStamp += readSignedVarint(column);
+            if (timeStamp < 0) throw new IOException("Corrupted archive segment");
+            timeStamps[i] = timeStamp;
+        }
+
+        column = new ByteArrayInputStream(readColumn(in, inflater));
+        dictionary = new byte[(int) readVarint(column) * ICAO_LENGTH];
+        if (column.readNBytes(dictionary, 0, dictionary.length) != dictionary.length) throw new EOFException();
+
+        column = new ByteArrayInputStream(readColumn(in, inflater));
+        icaoIndices = new int[count];
+        int icaoCount = dictionary.length / ICAO_LENGTH;
+        for (int i = 0; i < count; ++i) {
+            long icaoIndex = readVarint(column);
+            if (icaoIndex < 0 || icaoIndex >= icaoCount) throw new IOException("Corrupted archive segment");
+            icaoIndices[i] = (int) icaoIndex;
+        }
+
+        typeCodes = readColumn(in, inflater);
+        firstBytes = readColumn(in, inflater);
+        payloads = readColumn(in, inflater);
+        if (typeCodes.length != count || firstBytes.length != count || payloads.length != count * PAYLOAD_LENGTH)
+            throw new IOException("Corrupted archive segment");
+        for (byte typeCode : typeCodes) {
+            if (typeCode < 0 || typeCode >= TYPE_CODES) throw new IOException("Corrupted archive segment");
+        }
+
+        Arrays.fill(groupSizes, 0);
+        Arrays.fill(groupPositions, 0);
+        for (byte typeCode : typeCodes) ++groupSizes[typeCode];
+        for (int typeCode = 0, offset = 0; typeCode < TYPE_CODES; ++typeCode) {
+            groupOffsets[typeCode] = offset;
+            offset += groupSizes[typeCode] * PAYLOAD_LENGTH;
+        }
+        return true;
+    }
+
+}
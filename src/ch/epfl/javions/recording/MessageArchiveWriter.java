@@ -0,0 +1,144 @@
+package ch.epfl.javions.recording;
+
+import ch.epfl.javions.ByteString;
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.adsb.RawMessage;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static ch.epfl.javions.recording.MessageArchive.*;
+
+/**
+ * Writes raw messages into a compact columnar archive (see MessageArchive for the format). The messages are buffered
+ * in primitive arrays and written as one segment every time a given number of messages has been received.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MessageArchiveWriter implements Closeable {
+    /**
+     * Default number of messages per segment
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 16;
+    private final DataOutputStream out;
+    private final Deflater deflater;
+    private final int segmentSize;
+    private final long[] timeStamps;
+    private final int[] icaoAddresses;
+    private final byte[] typeCodes;
+    private final byte[] firstBytes;
+    private final long[] payloads;
+    private int count;
+
+    /**
+     * Creates a writer and writes the header of the archive
+     *
+     * @param out         (OutputStream) : stream to write the archive to
+     * @param segmentSize (int) : maximum number of messages per segment
+     * @param compress    (boolean) : true if the columns should be deflated
+     * @throws IOException              if an input/output error occurs
+     * @throws IllegalArgumentException if the segment size is not strictly positive
+     */
+    public MessageArchiveWriter(OutputStream out, int segmentSize, boolean compress) throws IOException {
+        Preconditions.checkArgument(segmentSize > 0);
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.deflater = compress ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+        this.segmentSize = segmentSize;
+        this.timeStamps = new long[segmentSize];
+        this.icaoAddresses = new int[segmentSize];
+        this.typeCodes = new byte[segmentSize];
+        this.firstBytes = new byte[segmentSize];
+        this.payloads = new long[segmentSize];
+        this.out.writeInt(MAGIC);
+    }
+
+    /**
+     * Adds a message to the archive. The message must be valid (its CRC must be correct), since its CRC is not stored.
+     *
+     * @param rawMessage (RawMessage) : message to add
+     * @throws IOException if an input/output error occurs
+     */
+    public void write(RawMessage rawMessage) throws IOException {
+        ByteString bytes = rawMessage.bytes();
+        timeStamps[count] = rawMessage.timeStampNs();
+        icaoAddresses[count] = (int) bytes.bytesInRange(1, PAYLOAD_START);
+        typeCodes[count] = (byte) rawMessage.typeCode();
+        firstBytes[count] = (byte) bytes.byteAt(0);
+        payloads[count] = rawMessage.payload();
+        if (++count == segmentSize) writeSegment();
+    }
+
+    /**
+     * Writes the last segment and closes the underlying stream
+     *
+     * @throws IOException if an input/output error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            if (count > 0) writeSegment();
+        } finally {
+            if (deflater != null) deflater.end();
+        }
+    }
+
+    /**
+     * Writes the buffered messages as a segment
+     */
+    private void writeSegment() throws IOException {
+        out.writeInt(count);
+        out.writeLong(timeStamps[0]);
+
+        ByteArrayOutputStream column = new ByteArrayOutputStream(count * PAYLOAD_LENGTH);
+        long previousTimeStamp = timeStamps[0];
+        for (int i = 0; i < count; ++i) {
+            writeSignedVarint(column, timeStamps[i] - previousTimeStamp);
+            previousTimeStamp = timeStamps[i];
+        }
+        writeColumn(out, column, deflater);
+
+        Map<Integer, Integer> dictionary = new HashMap<>();
+        ByteArrayOutputStream indices = new ByteArrayOutputStream(count);
+        column.reset();
+        for (int i = 0; i < count; ++i) {
+            Integer index = dictionary.get(icaoAddresses[i]);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(icaoAddresses[i], index);
+            }
+            writeVarint(indices, index);
+        }
+        int[] addresses = new int[dictionary.size()];
+        dictionary.forEach((address, index) -> addresses[index] = address);
+        writeVarint(column, addresses.length);
+        for (int address : addresses) {
+            for (int i = ICAO_LENGTH - 1; i >= 0; --i) column.write(address >>> (Byte.SIZE * i));
+        }
+        writeColumn(out, column, deflater);
+        writeColumn(out, indices, deflater);
+
+        column.reset();
+        column.write(typeCodes, 0, count);
+        writeColumn(out, column, deflater);
+
+        column.reset();
+        column.write(firstBytes, 0, count);
+        writeColumn(out, column, deflater);
+
+        column.reset();
+        for (int typeCode = 0; typeCode < TYPE_CODES; ++typeCode) {
+            for (int j = PAYLOAD_LENGTH - 1; j >= 0; --j) {
+                for (int i = 0; i < count; ++i) {
+                    if (typeCodes[i] == typeCode) column.write((int) (payloads[i] >>> (Byte.SIZE * j)));
+                }
+            }
+        }
+        writeColumn(out, column, deflater);
+
+        count = 0;
+    }
+
+}
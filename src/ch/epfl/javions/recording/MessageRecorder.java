@@ -0,0 +1,230 @@
+package ch.epfl.javions.recording;
+
+import ch.epfl.javions.Preconditions;
+import ch.epfl.javions.adsb.RawMessage;
+import ch.epfl.javions.adsb.RawMessageRingBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Records raw messages into files of the format read by the file mode of the program, i.e. a sequence of records
+ * made of a timestamp (8 bytes) followed by the bytes of the message (14 bytes).
+ * <p>
+ * The messages are handed to a writer thread through a bounded ring buffer, so that recording never blocks the
+ * thread that demodulates them; messages that do not fit in the ring buffer are dropped and counted. The writer
+ * thread accumulates the records in a direct buffer, writes them in groups and forces them to the disk at most once
+ * per second. A new file is started whenever the current one reaches a maximum size or duration, and the timestamps
+ * of each file start at the timestamp of its first message, so that every file can be replayed on its own.
+ *
+ * @author Leon Petrinos (357588)
+ * @author Andrea Trugenberger (357615)
+ */
+public final class MessageRecorder implements Closeable {
+    /**
+     * Size in bytes of a record (timestamp and message)
+     */
+    public static final int RECORD_SIZE = Long.BYTES + RawMessage.LENGTH;
+    private static final int RING_BUFFER_CAPACITY = 1 << 16;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 4096;
+    private static final int DRAIN_BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NS = 1_000_000L;
+    private static final long COMMIT_INTERVAL_NS = 1_000_000_000L;
+    private static final DateTimeFormatter FILE_NAME_FORMAT =
+            DateTimeFormatter.ofPattern("'messages_'yyyyMMdd_HHmmss");
+    private static final String FILE_EXTENSION = ".bin";
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final long maxFileDurationNs;
+    private final RawMessageRingBuffer ringBuffer;
+    private final ByteBuffer buffer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private volatile long recordCount;
+    private FileChannel channel;
+    private long fileBytes;
+    private long fileOpenTimeNs;
+    private long fileOriginNs;
+    private long lastCommitTimeNs;
+
+    /**
+     * Creates a recorder and starts its writer thread
+     *
+     * @param directory       (Path) : directory in which the files are created
+     * @param maxFileBytes    (long) : maximum size of a file, in bytes
+     * @param maxFileDuration (Duration) : maximum duration during which a file is written to
+     * @throws IOException              if the directory cannot be created
+     * @throws IllegalArgumentException if the maximum size cannot hold at least one record or if the maximum
+     *                                  duration is not strictly positive
+     */
+    public MessageRecorder(Path directory, long maxFileBytes, Duration maxFileDuration) throws IOException {
+        Preconditions.checkArgument(maxFileBytes >= RECORD_SIZE && !maxFileDuration.isNegative()
+                && !maxFileDuration.isZero());
+        this.directory = Files.createDirectories(directory);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileDurationNs = maxFileDuration.toNanos();
+        this.ringBuffer = new RawMessageRingBuffer(RING_BUFFER_CAPACITY);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.writerThread = new Thread(this::runWriter, "Javions message recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Hands a message to the writer thread, without waiting. Must always be called by the same thread.
+     *
+     * @param rawMessage (RawMessage) : message to record
+     * @return true if the message will be recorded, false if it was dropped
+     */
+    public boolean offer(RawMessage rawMessage) {
+        return !closed && ringBuffer.offer(rawMessage);
+    }
+
+    /**
+     * Returns the number of messages dropped because the writer thread could not keep up
+     *
+     * @return number of messages dropped
+     */
+    public long overflowCount() {
+        return ringBuffer.overflowCount();
+    }
+
+    /**
+     * Returns the number of messages written so far
+     *
+     * @return number of messages written so far
+     */
+    public long recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes the pending messages, forces them to the disk and stops the writer thread
+     *
+     * @throws IOException if an input/output error occurred while writing the messages
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Body of the writer thread : drains the ring buffer until the recorder is closed
+     */
+    private void runWriter() {
+        try {
+            while (!closed || ringBuffer.size() > 0) {
+                int drained = ringBuffer.drain(this::write, DRAIN_BATCH_SIZE);
+                // checked after every batch, as the buffer is never empty under a sustained load
+                if (System.nanoTime() - lastCommitTimeNs >= COMMIT_INTERVAL_NS) commit();
+                if (drained == 0) LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+            closeFile();
+        } catch (IOException e) {
+            failure = e;
+            closed = true;
+        } catch (UncheckedIOException e) {
+            failure = e.getCause();
+            closed = true;
+        }
+    }
+
+    /**
+     * Adds a record to the buffer, starting a new file first if needed
+     */
+    private void write(long timeStampNs, long firstHalf, long secondHalf) {
+        try {
+            if (channel != null && (fileBytes + RECORD_SIZE > maxFileBytes
+                    || System.nanoTime() - fileOpenTimeNs >= maxFileDurationNs)) {
+                closeFile();
+            }
+            if (channel == null) openFile(timeStampNs);
+            if (buffer.remaining() < RECORD_SIZE) flush();
+
+            buffer.putLong(Math.max(0, timeStampNs - fileOriginNs));
+            putHalf(firstHalf);
+            putHalf(secondHalf);
+            fileBytes += RECORD_SIZE;
+            ++recordCount;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds the seven bytes of a half of a message to the buffer
+     */
+    private void putHalf(long half) {
+        for (int i = RawMessage.HALF_LENGTH - 1; i >= 0; --i) {
+            buffer.put((byte) (half >>> (Byte.SIZE * i)));
+        }
+    }
+
+    /**
+     * Opens a new file, whose timestamps start at the given one
+     */
+    private void openFile(long originNs) throws IOException {
+        String name = LocalDateTime.now().format(FILE_NAME_FORMAT);
+        for (int i = 0; channel == null; ++i) {
+            Path file = directory.resolve((i == 0 ? name : name + "_" + i) + FILE_EXTENSION);
+            try {
+                channel = FileChannel.open(file, CREATE_NEW, WRITE);
+            } catch (FileAlreadyExistsException ignored) {
+            }
+        }
+        fileBytes = 0;
+        fileOriginNs = originNs;
+        fileOpenTimeNs = System.nanoTime();
+        lastCommitTimeNs = fileOpenTimeNs;
+    }
+
+    /**
+     * Writes the buffer to the current file
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffer to the current file and forces the file to the disk
+     */
+    private void commit() throws IOException {
+        lastCommitTimeNs = System.nanoTime();
+        if (channel == null) return;
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Commits and closes the current file
+     */
+    private void closeFile() throws IOException {
+        commit();
+        if (channel != null) channel.close();
+        channel = null;
+    }
+
+}